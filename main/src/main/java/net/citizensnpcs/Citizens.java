@@ -69,14 +69,26 @@ import net.citizensnpcs.commands.TemplateCommands;
 import net.citizensnpcs.commands.TraitCommands;
 import net.citizensnpcs.commands.WaypointCommands;
 import net.citizensnpcs.editor.Editor;
+import net.citizensnpcs.npc.CitizensNPC;
 import net.citizensnpcs.npc.CitizensNPCRegistry;
 import net.citizensnpcs.npc.CitizensTraitFactory;
 import net.citizensnpcs.npc.NPCSelector;
+import net.citizensnpcs.npc.ai.AsyncPathfinder;
+import net.citizensnpcs.npc.ai.BlockSnapshotCache;
+import net.citizensnpcs.npc.ai.FlowFieldCache;
+import net.citizensnpcs.npc.ai.PathCache;
+import net.citizensnpcs.npc.ai.PathfindingMetrics;
+import net.citizensnpcs.npc.ai.PathfindingScheduler;
+import net.citizensnpcs.npc.ai.RegionGraph;
 import net.citizensnpcs.npc.skin.Skin;
 import net.citizensnpcs.npc.skin.profile.ProfileFetcher;
 import net.citizensnpcs.trait.shop.StoredShops;
+import net.citizensnpcs.trait.waypoint.WanderCellCache;
+import net.citizensnpcs.util.LineOfSightCache;
 import net.citizensnpcs.util.Messages;
 import net.citizensnpcs.util.NMS;
+import net.citizensnpcs.util.NPCChunkIndex;
+import net.citizensnpcs.util.PlaceholderCache;
 import net.citizensnpcs.util.PlayerUpdateTask;
 import net.citizensnpcs.util.SkinProperty;
 import net.citizensnpcs.util.Util;
@@ -84,9 +96,12 @@ import net.milkbowl.vault.economy.Economy;
 
 public class Citizens extends JavaPlugin implements CitizensPlugin {
     private final List<NPCRegistry> anonymousRegistries = Lists.newArrayList();
+    private BlockSnapshotCache blockSnapshotCache;
     private final CommandManager commands = new CommandManager();
     private Settings config;
     private boolean enabled;
+    private FlowFieldCache flowFieldCache;
+    private final LineOfSightCache lineOfSightCache = new LineOfSightCache();
     private LocationLookup locationLookup;
     private final NMSHelper nmsHelper = new NMSHelper() {
         private boolean SUPPORT_OWNER_PROFILE = false;
@@ -139,16 +154,24 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
             NMS.updateInventoryTitle(player, view, newTitle);
         }
     };
+    private final NPCChunkIndex npcChunkIndex = new NPCChunkIndex();
     private CitizensNPCRegistry npcRegistry;
+    private PathCache pathCache;
+    private final PathfindingMetrics pathfindingMetrics = new PathfindingMetrics();
+    private PathfindingScheduler pathfindingScheduler;
     private ProtocolLibListener protocolListener;
+    private RegionGraph regionGraph;
     private boolean saveOnDisable = true;
+    private final IncrementalSaver incrementalSaver = new IncrementalSaver();
     private NPCDataStore saves;
+    private Storage savesStorage;
     private NPCSelector selector;
     private StoredShops shops;
     private final Map<String, NPCRegistry> storedRegistries = Maps.newHashMap();
     private TemplateRegistry templateRegistry;
     private NPCRegistry temporaryRegistry;
     private CitizensTraitFactory traitFactory;
+    private WanderCellCache wanderCellCache;
 
     @Override
     public NPCRegistry createAnonymousNPCRegistry(NPCDataStore store) {
@@ -169,6 +192,7 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
         if (!saves.load())
             return null;
 
+        savesStorage = saves;
         return SimpleNPCDataStore.create(saves);
     }
 
@@ -198,6 +222,14 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
         return selector;
     }
 
+    public FlowFieldCache getFlowFieldCache() {
+        return flowFieldCache;
+    }
+
+    public LineOfSightCache getLineOfSightCache() {
+        return lineOfSightCache;
+    }
+
     @Override
     public LocationLookup getLocationLookup() {
         return locationLookup;
@@ -243,6 +275,10 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
         };
     }
 
+    public NPCChunkIndex getNPCChunkIndex() {
+        return npcChunkIndex;
+    }
+
     @Override
     public NPCRegistry getNPCRegistry() {
         return npcRegistry;
@@ -252,6 +288,22 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
         return selector;
     }
 
+    public BlockSnapshotCache getBlockSnapshotCache() {
+        return blockSnapshotCache;
+    }
+
+    public PathCache getPathCache() {
+        return pathCache;
+    }
+
+    public PathfindingMetrics getPathfindingMetrics() {
+        return pathfindingMetrics;
+    }
+
+    public PathfindingScheduler getPathfindingScheduler() {
+        return pathfindingScheduler;
+    }
+
     @Override
     public ClassLoader getOwningClassLoader() {
         return getClassLoader();
@@ -261,6 +313,10 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
         return protocolListener;
     }
 
+    public RegionGraph getRegionGraph() {
+        return regionGraph;
+    }
+
     public StoredShops getShops() {
         return shops;
     }
@@ -280,6 +336,10 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
         return traitFactory;
     }
 
+    public WanderCellCache getWanderCellCache() {
+        return wanderCellCache;
+    }
+
     private void loadMavenLibraries() {
         getLogger().info("Loading external libraries");
 
@@ -330,8 +390,16 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
 
     @Override
     public boolean onCommand(CommandSender sender, org.bukkit.command.Command command, String cmdName, String[] args) {
-        Object[] methodArgs = { sender, selector == null ? null : selector.getSelected(sender) };
-        return commands.executeSafe(command, args, sender, methodArgs);
+        NPC selected = selector == null ? null : selector.getSelected(sender);
+        Object[] methodArgs = { sender, selected };
+        Map<String, Object> before = selected instanceof CitizensNPC ? ((CitizensNPC) selected).getStoredValues()
+                : null;
+        boolean result = commands.executeSafe(command, args, sender, methodArgs);
+        // only commands that changed what the NPC saves need an incremental save
+        if (before != null && !before.equals(((CitizensNPC) selected).getStoredValues())) {
+            ((CitizensNPC) selected).markDirty();
+        }
+        return result;
     }
 
     public void onDependentPluginDisable() {
@@ -348,15 +416,19 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
 
         Bukkit.getPluginManager().callEvent(new CitizensDisableEvent());
         Editor.leaveAll();
+        incrementalSaver.flush();
         despawnNPCs(saveOnDisable);
         HandlerList.unregisterAll(this);
 
         templateRegistry = null;
         npcRegistry = null;
         locationLookup = null;
+        npcChunkIndex.clear();
+        lineOfSightCache.clear();
         enabled = false;
         saveOnDisable = true;
         ProfileFetcher.shutdown();
+        AsyncPathfinder.shutdown();
         Skin.clearCache();
         NMS.shutdown();
         CitizensAPI.shutdown();
@@ -394,6 +466,8 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
         temporaryRegistry = new CitizensNPCRegistry(new MemoryNPCDataStore(), "citizens-temporary");
         locationLookup = new LocationLookup(npcRegistry);
         locationLookup.runTaskTimer(CitizensAPI.getPlugin(), 0, 5);
+        pathfindingScheduler = new PathfindingScheduler();
+        pathfindingScheduler.runTaskTimer(this, 1, 1);
 
         traitFactory = new CitizensTraitFactory(this);
         selector = new NPCSelector(this);
@@ -403,6 +477,17 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
         }
         Bukkit.getPluginManager().registerEvents(new EventListen(), this);
         Bukkit.getPluginManager().registerEvents(new Placeholders(), this);
+        pathCache = new PathCache();
+        pathCache.registerEvents(this);
+        blockSnapshotCache = new BlockSnapshotCache();
+        blockSnapshotCache.registerEvents(this);
+        regionGraph = new RegionGraph();
+        regionGraph.registerEvents(this);
+        flowFieldCache = new FlowFieldCache();
+        flowFieldCache.registerEvents(this);
+        Bukkit.getScheduler().runTaskTimer(this, flowFieldCache, 1, 1);
+        wanderCellCache = new WanderCellCache();
+        wanderCellCache.registerEvents(this);
 
         Plugin papi = Bukkit.getPluginManager().getPlugin("PlaceholderAPI");
         if (papi != null && papi.isEnabled()) {
@@ -459,9 +544,14 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
         despawnNPCs(false);
         ProfileFetcher.reset();
         Skin.clearCache();
+        pathCache.clear();
+        blockSnapshotCache.clear();
+        regionGraph.clear();
+        PlaceholderCache.getInstance().clear();
 
         templateRegistry = new TemplateRegistry(new File(getDataFolder(), "templates").toPath());
 
+        incrementalSaver.flush();
         saves.reloadFromSource();
         saves.loadInto(npcRegistry);
 
@@ -485,6 +575,8 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
             throw new IllegalArgumentException("must be non-null");
         despawnNPCs(true);
         saves = store;
+        // the saves file no longer backs the data store, so it can't be written from a snapshot
+        savesStorage = null;
         npcRegistry = new CitizensNPCRegistry(saves, "citizens-global-" + UUID.randomUUID().toString());
         saves.loadInto(npcRegistry);
     }
@@ -555,6 +647,7 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
     public void storeNPCs(boolean async) {
         if (saves == null)
             return;
+        incrementalSaver.flush();
         saves.storeAll(npcRegistry);
         shops.storeShops();
         if (async) {
@@ -601,7 +694,16 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
     private class CitizensSaveTask implements Runnable {
         @Override
         public void run() {
-            storeNPCs(false);
+            if (!Setting.STORAGE_INCREMENTAL_SAVES.asBoolean()) {
+                storeNPCs(false);
+                return;
+            }
+            if (saves == null)
+                return;
+            File file = new File(getDataFolder(), Setting.STORAGE_FILE.asString());
+            incrementalSaver.save(npcRegistry, saves, savesStorage, file);
+            shops.storeShops();
+            shops.saveToDisk();
         }
     }
 }
@@ -1,10 +1,15 @@
 package net.citizensnpcs;
 
 import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 
 import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
 import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.entity.Entity;
@@ -66,11 +71,8 @@ import org.bukkit.scheduler.BukkitRunnable;
 import org.bukkit.util.Vector;
 
 import com.google.common.base.Joiner;
-import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
-import com.google.common.collect.ListMultimap;
-import com.google.common.collect.Lists;
 
 import net.citizensnpcs.Settings.Setting;
 import net.citizensnpcs.api.CitizensAPI;
@@ -80,6 +82,7 @@ import net.citizensnpcs.api.event.CitizensPreReloadEvent;
 import net.citizensnpcs.api.event.CommandSenderCreateNPCEvent;
 import net.citizensnpcs.api.event.DespawnReason;
 import net.citizensnpcs.api.event.EntityTargetNPCEvent;
+import net.citizensnpcs.api.event.NPCAddTraitEvent;
 import net.citizensnpcs.api.event.NPCCombustByBlockEvent;
 import net.citizensnpcs.api.event.NPCCombustByEntityEvent;
 import net.citizensnpcs.api.event.NPCCombustEvent;
@@ -94,6 +97,7 @@ import net.citizensnpcs.api.event.NPCLeftClickEvent;
 import net.citizensnpcs.api.event.NPCLinkToPlayerEvent;
 import net.citizensnpcs.api.event.NPCPushEvent;
 import net.citizensnpcs.api.event.NPCRemoveEvent;
+import net.citizensnpcs.api.event.NPCRemoveTraitEvent;
 import net.citizensnpcs.api.event.NPCRightClickEvent;
 import net.citizensnpcs.api.event.NPCSeenByPlayerEvent;
 import net.citizensnpcs.api.event.NPCSpawnEvent;
@@ -105,6 +109,7 @@ import net.citizensnpcs.api.trait.trait.Owner;
 import net.citizensnpcs.api.trait.trait.PlayerFilter;
 import net.citizensnpcs.api.util.Messaging;
 import net.citizensnpcs.editor.Editor;
+import net.citizensnpcs.npc.CitizensNPC;
 import net.citizensnpcs.npc.ai.NPCHolder;
 import net.citizensnpcs.npc.skin.SkinUpdateTracker;
 import net.citizensnpcs.npc.skin.SkinnableEntity;
@@ -113,21 +118,24 @@ import net.citizensnpcs.trait.CommandTrait;
 import net.citizensnpcs.trait.Controllable;
 import net.citizensnpcs.trait.CurrentLocation;
 import net.citizensnpcs.trait.HologramTrait.HologramRenderer;
+import net.citizensnpcs.trait.ScoreboardTrait;
 import net.citizensnpcs.trait.ShopTrait;
 import net.citizensnpcs.trait.versioned.SnowmanTrait;
 import net.citizensnpcs.util.ChunkCoord;
 import net.citizensnpcs.util.Messages;
 import net.citizensnpcs.util.NMS;
+import net.citizensnpcs.util.NPCChunkIndex;
 import net.citizensnpcs.util.PlayerAnimation;
 import net.citizensnpcs.util.Util;
 
 public class EventListen implements Listener {
     private Listener chunkEventListener;
     private SkinUpdateTracker skinUpdateTracker;
-    private final ListMultimap<ChunkCoord, NPC> toRespawn = ArrayListMultimap.create(64, 4);
+    private final RespawnQueue toRespawn = new RespawnQueue(this);
 
     EventListen() {
         skinUpdateTracker = new SkinUpdateTracker();
+        toRespawn.runTaskTimer(CitizensAPI.getPlugin(), 1, 1);
         try {
             Class.forName("org.bukkit.event.world.EntitiesLoadEvent");
             Bukkit.getPluginManager().registerEvents(new Listener() {
@@ -138,21 +146,7 @@ public class EventListen implements Listener {
 
                 @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
                 public void onEntitiesUnload(EntitiesUnloadEvent event) {
-                    List<NPC> toDespawn = Lists
-                            .newArrayList(CitizensAPI.getLocationLookup().getNearbyNPCs(event.getWorld(),
-                                    new double[] { (event.getChunk().getX() << 4) - 0.5, 0,
-                                            (event.getChunk().getZ() << 4) - 0.5 },
-                                    new double[] { (event.getChunk().getX() + 1 << 4) + 0.5, 256,
-                                            (event.getChunk().getZ() + 1 << 4) + 0.5 }));
-                    for (Entity entity : event.getEntities()) {
-                        NPC npc = CitizensAPI.getNPCRegistry().getNPC(entity);
-                        // XXX npc#isSpawned() checks valid status which is now inconsistent on chunk unload
-                        // between different server software so check for npc.getEntity() == null instead.
-                        if (npc == null || npc.getEntity() == null || toDespawn.contains(npc))
-                            continue;
-
-                        toDespawn.add(npc);
-                    }
+                    Set<NPC> toDespawn = getNPCsToUnload(event.getChunk(), event.getEntities());
                     if (toDespawn.isEmpty())
                         return;
                     unloadNPCs(event, toDespawn);
@@ -225,13 +219,31 @@ public class EventListen implements Listener {
         return Iterables.filter(Iterables.concat(CitizensAPI.getNPCRegistries()), Objects::nonNull);
     }
 
+    private Set<NPC> getNPCsToUnload(Chunk chunk, Iterable<Entity> entities) {
+        NPCChunkIndex index = ((Citizens) CitizensAPI.getPlugin()).getNPCChunkIndex();
+        Set<NPC> toDespawn = new LinkedHashSet<>(index.getNPCs(chunk));
+        // entities may have been moved into the chunk since their NPC last updated the index
+        for (Entity entity : entities) {
+            NPC npc = CitizensAPI.getNPCRegistry().getNPC(entity);
+            // XXX npc#isSpawned() checks valid status which is now inconsistent on chunk unload
+            // between different server software so check for npc.getEntity() == null instead.
+            if (npc == null || npc.getEntity() == null)
+                continue;
+
+            toDespawn.add(npc);
+        }
+        return toDespawn;
+    }
+
     void loadNPCs(ChunkEvent event) {
         ChunkCoord coord = new ChunkCoord(event.getChunk());
         Runnable runnable = () -> respawnAllFromCoord(coord, event);
-        if (Messaging.isDebugging() && Setting.DEBUG_CHUNK_LOADS.asBoolean() && toRespawn.containsKey(coord)) {
+        if (Messaging.isDebugging() && Setting.DEBUG_CHUNK_LOADS.asBoolean() && toRespawn.containsCoord(coord)) {
             new Exception("CITIZENS CHUNK LOAD DEBUG " + coord).printStackTrace();
         }
-        if (event instanceof Cancellable) {
+        if (Setting.CHUNK_RESPAWNS_PER_TICK.asInt() > 0) {
+            toRespawn.onChunkLoaded(coord, event);
+        } else if (event instanceof Cancellable) {
             runnable.run();
         } else {
             Bukkit.getScheduler().scheduleSyncDelayedTask(CitizensAPI.getPlugin(), runnable);
@@ -249,19 +261,7 @@ public class EventListen implements Listener {
     public void onChunkUnload(ChunkUnloadEvent event) {
         if (chunkEventListener != null)
             return;
-        List<NPC> toDespawn = Lists.newArrayList(CitizensAPI.getLocationLookup().getNearbyNPCs(event.getWorld(),
-                new double[] { (event.getChunk().getX() << 4) - 0.5, 0, (event.getChunk().getZ() << 4) - 0.5 },
-                new double[] { (event.getChunk().getX() + 1 << 4) + 0.5, 256,
-                        (event.getChunk().getZ() + 1 << 4) + 0.5 }));
-        for (Entity entity : event.getChunk().getEntities()) {
-            NPC npc = CitizensAPI.getNPCRegistry().getNPC(entity);
-            // XXX npc#isSpawned() checks valid status which is now inconsistent on chunk unload
-            // between different server software so check for npc.getEntity() == null instead.
-            if (npc == null || npc.getEntity() == null || toDespawn.contains(npc))
-                continue;
-
-            toDespawn.add(npc);
-        }
+        Set<NPC> toDespawn = getNPCsToUnload(event.getChunk(), Arrays.asList(event.getChunk().getEntities()));
         if (toDespawn.isEmpty())
             return;
         unloadNPCs(event, toDespawn);
@@ -433,20 +433,27 @@ public class EventListen implements Listener {
     @EventHandler
     public void onNeedsRespawn(NPCNeedsRespawnEvent event) {
         ChunkCoord coord = new ChunkCoord(event.getSpawnLocation());
-        if (toRespawn.containsEntry(coord, event.getNPC()))
+        if (toRespawn.contains(coord, event.getNPC()))
             return;
 
         Messaging.debug("Stored", event.getNPC(), "for respawn from NPCNeedsRespawnEvent");
         toRespawn.put(coord, event.getNPC());
     }
 
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onNPCAddTrait(NPCAddTraitEvent event) {
+        if (event.getNPC() instanceof CitizensNPC) {
+            ((CitizensNPC) event.getNPC()).markDirty();
+        }
+    }
+
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onNPCDespawn(NPCDespawnEvent event) {
         if (event.getReason() == DespawnReason.PLUGIN || event.getReason() == DespawnReason.REMOVAL
                 || event.getReason() == DespawnReason.RELOAD) {
             Messaging.idebug(() -> Joiner.on(' ').join("Preventing further respawns of", event.getNPC(),
                     "due to DespawnReason." + event.getReason()));
-            toRespawn.values().remove(event.getNPC());
+            toRespawn.remove(event.getNPC());
         } else {
             Messaging.idebug(() -> Joiner.on(' ').join("Removing", event.getNPC(),
                     "from skin tracker due to DespawnReason." + event.getReason().name()));
@@ -509,7 +516,14 @@ public class EventListen implements Listener {
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onNPCRemove(NPCRemoveEvent event) {
-        toRespawn.values().remove(event.getNPC());
+        toRespawn.remove(event.getNPC());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onNPCRemoveTrait(NPCRemoveTraitEvent event) {
+        if (event.getNPC() instanceof CitizensNPC) {
+            ((CitizensNPC) event.getNPC()).markDirty();
+        }
     }
 
     @EventHandler(ignoreCancelled = true)
@@ -529,12 +543,20 @@ public class EventListen implements Listener {
         }
     }
 
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onNPCSeenByPlayerMonitor(NPCSeenByPlayerEvent event) {
+        ScoreboardTrait trait = event.getNPC().getTraitNullable(ScoreboardTrait.class);
+        if (trait != null) {
+            trait.onSeenByPlayer(event.getPlayer());
+        }
+    }
+
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onNPCSpawn(NPCSpawnEvent event) {
         skinUpdateTracker.onNPCSpawn(event.getNPC());
         Messaging.idebug(() -> Joiner.on(' ').join("Removing respawns of", event.getNPC(),
                 "due to SpawnReason." + event.getReason()));
-        toRespawn.values().remove(event.getNPC());
+        toRespawn.remove(event.getNPC());
     }
 
     @EventHandler
@@ -787,7 +809,7 @@ public class EventListen implements Listener {
 
     @EventHandler(ignoreCancelled = true)
     public void onWorldLoad(WorldLoadEvent event) {
-        for (ChunkCoord chunk : toRespawn.keySet()) {
+        for (ChunkCoord chunk : toRespawn.getCoords()) {
             if (!chunk.worldUUID.equals(event.getWorld().getUID())
                     || !event.getWorld().isChunkLoaded(chunk.x, chunk.z)) {
                 continue;
@@ -804,7 +826,7 @@ public class EventListen implements Listener {
             }
             boolean despawned = npc.despawn(DespawnReason.WORLD_UNLOAD);
             if (event.isCancelled() || !despawned) {
-                for (ChunkCoord coord : toRespawn.keySet()) {
+                for (ChunkCoord coord : toRespawn.getCoords()) {
                     if (event.getWorld().getUID().equals(coord.worldUUID)) {
                         respawnAllFromCoord(coord, event);
                     }
@@ -885,31 +907,35 @@ public class EventListen implements Listener {
         }
     }
 
+    /**
+     * Tries to respawn an NPC stored for respawn at the chunk. NPCs that fail to spawn stay stored.
+     */
+    void respawn(ChunkCoord coord, NPC npc, Event event) {
+        if (npc.getOwningRegistry().getById(npc.getId()) != npc) {
+            Messaging.idebug(() -> "Prevented deregistered NPC from respawning " + npc);
+            toRespawn.remove(coord, npc);
+            return;
+        }
+        if (npc.isSpawned()) {
+            Messaging.idebug(() -> "Can't respawn NPC " + npc + ": already spawned");
+            toRespawn.remove(coord, npc);
+            return;
+        }
+        if (!spawn(npc)) {
+            Messaging.idebug(() -> Joiner.on(' ').join("Couldn't respawn", npc, "during", event, "at", coord));
+            return;
+        }
+        Messaging.idebug(() -> Joiner.on(' ').join("Spawned", npc, "during", event, "at", coord));
+        toRespawn.remove(coord, npc);
+    }
+
     private void respawnAllFromCoord(ChunkCoord coord, Event event) {
-        List<NPC> ids = Lists.newArrayList(toRespawn.get(coord));
+        List<NPC> ids = toRespawn.getNPCs(coord);
         if (ids.size() > 0) {
             Messaging.idebug(() -> Joiner.on(' ').join("Respawning all NPCs at", coord, "due to", event, "at", coord));
         }
-        for (int i = 0; i < ids.size(); i++) {
-            NPC npc = ids.get(i);
-            if (npc.getOwningRegistry().getById(npc.getId()) != npc) {
-                Messaging.idebug(() -> "Prevented deregistered NPC from respawning " + npc);
-                continue;
-            }
-            if (npc.isSpawned()) {
-                Messaging.idebug(() -> "Can't respawn NPC " + npc + ": already spawned");
-                continue;
-            }
-            boolean success = spawn(npc);
-            if (!success) {
-                ids.remove(i--);
-                Messaging.idebug(() -> Joiner.on(' ').join("Couldn't respawn", npc, "during", event, "at", coord));
-                continue;
-            }
-            Messaging.idebug(() -> Joiner.on(' ').join("Spawned", npc, "during", event, "at", coord));
-        }
         for (NPC npc : ids) {
-            toRespawn.remove(coord, npc);
+            respawn(coord, npc, event);
         }
     }
 
@@ -922,11 +948,11 @@ public class EventListen implements Listener {
         return npc.spawn(spawn, SpawnReason.CHUNK_LOAD);
     }
 
-    private void unloadNPCs(ChunkEvent event, List<NPC> toDespawn) {
+    private void unloadNPCs(ChunkEvent event, Collection<NPC> toDespawn) {
         ChunkCoord coord = new ChunkCoord(event.getChunk());
         boolean loadChunk = false;
         for (NPC npc : toDespawn) {
-            if (toRespawn.containsValue(npc))
+            if (toRespawn.contains(npc))
                 continue;
             if (!npc.despawn(DespawnReason.CHUNK_UNLOAD)) {
                 if (!(event instanceof Cancellable)) {
@@ -0,0 +1,189 @@
+package net.citizensnpcs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import net.citizensnpcs.Settings.Setting;
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.api.npc.NPCDataStore;
+import net.citizensnpcs.api.util.MemoryDataKey;
+import net.citizensnpcs.api.util.Messaging;
+import net.citizensnpcs.api.util.Storage;
+import net.citizensnpcs.npc.CitizensNPC;
+
+/**
+ * Periodically stores only the NPCs that have changed since the last save, then writes the save file on a background
+ * thread. The writer keeps a detached copy of the storage, and each save copies only the sections of the NPCs stored,
+ * added or removed since the last one on the main thread. Changes that cannot be detected, such as metadata or trait
+ * fields modified by other plugins, are caught by a full store and copy every few saves.
+ */
+class IncrementalSaver {
+    private int savesSinceFull;
+    // only accessed on the writer thread
+    private YamlConfiguration snapshot;
+    // the NPC ids in the snapshot, or null if the next save must copy the whole storage
+    private Set<String> snapshotIds;
+    private ExecutorService writer;
+
+    /**
+     * Waits for pending writes to finish. Must be called before the save file is written synchronously or the storage
+     * is reloaded.
+     */
+    public void flush() {
+        if (writer == null)
+            return;
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(30, TimeUnit.SECONDS)) {
+                Messaging.severe("Timed out waiting for NPC saves to be written to disk");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer = null;
+        snapshotIds = null;
+    }
+
+    private ExecutorService getWriter() {
+        if (writer == null) {
+            writer = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "Citizens-Save-Writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return writer;
+    }
+
+    /**
+     * Stores changed NPCs into <code>saves</code>. If <code>storage</code> backs the data store, its contents are
+     * then written to <code>file</code> off the main thread, otherwise the data store is saved immediately.
+     */
+    public void save(Iterable<NPC> npcs, NPCDataStore saves, Storage storage, File file) {
+        boolean full = ++savesSinceFull >= Setting.STORAGE_FULL_SAVE_INTERVAL.asInt();
+        if (full) {
+            savesSinceFull = 0;
+        }
+        Set<String> stored = new HashSet<>();
+        for (NPC npc : npcs) {
+            if (!full && npc instanceof CitizensNPC && !((CitizensNPC) npc).needsSave())
+                continue;
+            saves.store(npc);
+            stored.add(Integer.toString(npc.getId()));
+        }
+        int count = stored.size();
+        Messaging.idebug(() -> "Stored " + count + " NPCs" + (full ? " (full save)" : ""));
+        if (storage == null) {
+            saves.saveToDiskImmediate();
+            return;
+        }
+        ConfigurationSection root = ((MemoryDataKey) storage.getKey("")).getSection("");
+        ConfigurationSection npcRoot = root.getConfigurationSection("npc");
+        Set<String> ids = npcRoot == null ? new HashSet<>() : npcRoot.getKeys(false);
+        if (full || snapshotIds == null) {
+            YamlConfiguration copy = new YamlConfiguration();
+            if (root.getRoot() instanceof FileConfiguration) {
+                copy.options().header(((FileConfiguration) root.getRoot()).options().header());
+            }
+            copy(root, copy);
+            snapshotIds = ids;
+            getWriter().execute(() -> {
+                snapshot = copy;
+                write(copy, file);
+            });
+            return;
+        }
+        YamlConfiguration others = new YamlConfiguration();
+        for (Map.Entry<String, Object> entry : root.getValues(false).entrySet()) {
+            if (entry.getKey().equals("npc"))
+                continue;
+            if (entry.getValue() instanceof ConfigurationSection) {
+                copy((ConfigurationSection) entry.getValue(), others.createSection(entry.getKey()));
+            } else {
+                others.set(entry.getKey(), copy(entry.getValue()));
+            }
+        }
+        YamlConfiguration changed = new YamlConfiguration();
+        for (String id : ids) {
+            // NPCs can also be added to the storage without being stored by this saver
+            if (stored.contains(id) || !snapshotIds.contains(id)) {
+                copy(npcRoot.getConfigurationSection(id), changed.createSection(id));
+            }
+        }
+        Set<String> removed = new HashSet<>(snapshotIds);
+        removed.removeAll(ids);
+        snapshotIds = ids;
+        getWriter().execute(() -> {
+            for (String key : snapshot.getKeys(false)) {
+                if (!key.equals("npc")) {
+                    snapshot.set(key, null);
+                }
+            }
+            copy(others, snapshot);
+            ConfigurationSection npcSnapshot = snapshot.getConfigurationSection("npc");
+            if (npcSnapshot == null) {
+                npcSnapshot = snapshot.createSection("npc");
+            }
+            for (String id : removed) {
+                npcSnapshot.set(id, null);
+            }
+            for (String id : changed.getKeys(false)) {
+                copy(changed.getConfigurationSection(id), npcSnapshot.createSection(id));
+            }
+            write(snapshot, file);
+        });
+    }
+
+    private static Object copy(Object value) {
+        if (value instanceof List) {
+            List<Object> copy = new ArrayList<>();
+            for (Object element : (List<?>) value) {
+                copy.add(copy(element));
+            }
+            return copy;
+        }
+        return value;
+    }
+
+    private static void copy(ConfigurationSection from, ConfigurationSection to) {
+        for (Map.Entry<String, Object> entry : from.getValues(false).entrySet()) {
+            if (entry.getValue() instanceof ConfigurationSection) {
+                copy((ConfigurationSection) entry.getValue(), to.createSection(entry.getKey()));
+            } else {
+                to.set(entry.getKey(), copy(entry.getValue()));
+            }
+        }
+    }
+
+    private static void write(YamlConfiguration snapshot, File file) {
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            Files.write(temp.toPath(), snapshot.saveToString().getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            Messaging.severe("Unable to write NPC saves to", file);
+            e.printStackTrace();
+        }
+    }
+}
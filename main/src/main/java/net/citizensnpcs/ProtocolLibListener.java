@@ -10,6 +10,7 @@ import java.util.UUID;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.EntityType;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.entity.EntityDeathEvent;
 
@@ -41,18 +42,21 @@ import net.citizensnpcs.api.event.NPCSpawnEvent;
 import net.citizensnpcs.api.npc.NPC;
 import net.citizensnpcs.api.trait.trait.MobType;
 import net.citizensnpcs.api.util.Messaging;
-import net.citizensnpcs.npc.ai.NPCHolder;
 import net.citizensnpcs.trait.HologramTrait.HologramRenderer;
 import net.citizensnpcs.trait.MirrorTrait;
 import net.citizensnpcs.trait.RotationTrait;
 import net.citizensnpcs.trait.RotationTrait.PacketRotationSession;
+import net.citizensnpcs.util.ConcurrentIntSet;
 import net.citizensnpcs.util.NMS;
+import net.citizensnpcs.util.RenderedTextCache;
 import net.citizensnpcs.util.SkinProperty;
 import net.citizensnpcs.util.Util;
 
 public class ProtocolLibListener implements Listener {
     private ProtocolManager manager;
     private final Map<UUID, MirrorTrait> mirrorTraits = Maps.newConcurrentMap();
+    private final ConcurrentIntSet npcEntityIds = new ConcurrentIntSet();
+    private final Map<Integer, NPC> npcsByEntityId = Maps.newConcurrentMap();
     private Citizens plugin;
     private final Map<Integer, RotationTrait> rotationTraits = Maps.newConcurrentMap();
 
@@ -60,7 +64,8 @@ public class ProtocolLibListener implements Listener {
         this.plugin = plugin;
         manager = ProtocolLibrary.getProtocolManager();
         Bukkit.getPluginManager().registerEvents(this, plugin);
-        manager.addPacketListener(new PacketAdapter(plugin, ListenerPriority.HIGHEST, Server.ENTITY_METADATA) {
+        manager.addPacketListener(new PacketAdapter(plugin, ListenerPriority.HIGHEST,
+                Arrays.asList(Server.ENTITY_METADATA), ListenerOptions.ASYNC) {
             @Override
             public void onPacketSending(PacketEvent event) {
                 NPC npc = getNPCFromPacket(event);
@@ -73,7 +78,7 @@ public class ProtocolLibListener implements Listener {
                     Object fakeName = null;
                     String suppliedName = hr.getPerPlayerText(npc, event.getPlayer());
                     fakeName = version <= 340 ? suppliedName
-                            : Optional.of(Messaging.minecraftComponentFromRawMessage(suppliedName));
+                            : RenderedTextCache.getInstance().getOptionalComponent(suppliedName);
                     boolean sneaking = hr.isSneaking(npc, event.getPlayer());
                     boolean delta = false;
 
@@ -201,22 +206,9 @@ public class ProtocolLibListener implements Listener {
                 ListenerOptions.ASYNC) {
             @Override
             public void onPacketSending(PacketEvent event) {
-                Integer eid = null;
-                try {
-                    eid = event.getPacket().getIntegers().readSafely(0);
-                    if (eid == null)
-                        return;
-                } catch (FieldAccessException | IllegalArgumentException ex) {
-                    if (!LOGGED_ERROR) {
-                        Messaging.severe(
-                                "Error retrieving entity from ID: ProtocolLib error? Suppressing further exceptions unless debugging.");
-                        ex.printStackTrace();
-                        LOGGED_ERROR = true;
-                    } else if (Messaging.isDebugging()) {
-                        ex.printStackTrace();
-                    }
+                Integer eid = readEntityId(event);
+                if (eid == null || !npcEntityIds.contains(eid))
                     return;
-                }
                 RotationTrait trait = rotationTraits.get(eid);
                 if (trait == null)
                     return;
@@ -244,21 +236,11 @@ public class ProtocolLibListener implements Listener {
     }
 
     private NPC getNPCFromPacket(PacketEvent event) {
-        PacketContainer packet = event.getPacket();
-        try {
-            Object entityModifier = packet.getEntityModifier(event).read(0);
-            return entityModifier instanceof NPCHolder ? ((NPCHolder) entityModifier).getNPC() : null;
-        } catch (FieldAccessException | IllegalArgumentException ex) {
-            if (!LOGGED_ERROR) {
-                Messaging.severe(
-                        "Error retrieving entity from ID: ProtocolLib error? Suppressing further exceptions unless debugging.");
-                ex.printStackTrace();
-                LOGGED_ERROR = true;
-            } else if (Messaging.isDebugging()) {
-                ex.printStackTrace();
-            }
+        // reject packets for non-NPC entities without resolving the entity
+        Integer eid = readEntityId(event);
+        if (eid == null || !npcEntityIds.contains(eid))
             return null;
-        }
+        return npcsByEntityId.get(eid);
     }
 
     @EventHandler(ignoreCancelled = true)
@@ -270,12 +252,18 @@ public class ProtocolLibListener implements Listener {
     public void onNPCDespawn(NPCDespawnEvent event) {
         if (event.getNPC().getEntity() == null)
             return;
-        rotationTraits.remove(event.getNPC().getEntity().getEntityId());
+        int id = event.getNPC().getEntity().getEntityId();
+        npcEntityIds.remove(id);
+        npcsByEntityId.remove(id);
+        rotationTraits.remove(id);
         mirrorTraits.remove(event.getNPC().getEntity().getUniqueId());
     }
 
-    @EventHandler(ignoreCancelled = true)
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onNPCSpawn(NPCSpawnEvent event) {
+        int id = event.getNPC().getEntity().getEntityId();
+        npcsByEntityId.put(id, event.getNPC());
+        npcEntityIds.add(id);
         onSpawn(event);
     }
 
@@ -298,6 +286,22 @@ public class ProtocolLibListener implements Listener {
         onSpawn(event);
     }
 
+    private Integer readEntityId(PacketEvent event) {
+        try {
+            return event.getPacket().getIntegers().readSafely(0);
+        } catch (FieldAccessException | IllegalArgumentException ex) {
+            if (!LOGGED_ERROR) {
+                Messaging.severe(
+                        "Error retrieving entity from ID: ProtocolLib error? Suppressing further exceptions unless debugging.");
+                ex.printStackTrace();
+                LOGGED_ERROR = true;
+            } else if (Messaging.isDebugging()) {
+                ex.printStackTrace();
+            }
+            return null;
+        }
+    }
+
     private static byte degToByte(float in) {
         return (byte) (in * 256.0F / 360.0F);
     }
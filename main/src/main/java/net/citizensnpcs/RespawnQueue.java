@@ -0,0 +1,177 @@
+package net.citizensnpcs;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.event.Event;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import net.citizensnpcs.Settings.Setting;
+import net.citizensnpcs.api.CitizensAPI;
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.util.ChunkCoord;
+
+/**
+ * Tracks NPCs waiting for their chunk to load, indexed both by chunk and by NPC. The NPCs of loaded chunks are
+ * respawned over the following ticks within a per-tick budget, favouring chunks near players. Each NPC is tried once
+ * per chunk load; NPCs that fail to spawn stay stored until the chunk loads again.
+ */
+class RespawnQueue extends BukkitRunnable {
+    private final Map<ChunkCoord, Set<NPC>> byCoord = new HashMap<>();
+    private final Map<NPC, ChunkCoord> coords = new HashMap<>();
+    private final EventListen listener;
+    private final Map<ChunkCoord, LoadedChunk> loaded = new LinkedHashMap<>();
+
+    RespawnQueue(EventListen listener) {
+        this.listener = listener;
+    }
+
+    public void clear() {
+        byCoord.clear();
+        coords.clear();
+        loaded.clear();
+    }
+
+    public boolean contains(ChunkCoord coord, NPC npc) {
+        return coord.equals(coords.get(npc));
+    }
+
+    public boolean contains(NPC npc) {
+        return coords.containsKey(npc);
+    }
+
+    public boolean containsCoord(ChunkCoord coord) {
+        return byCoord.containsKey(coord);
+    }
+
+    /**
+     * @return a copy of the chunks with NPCs waiting to respawn
+     */
+    public List<ChunkCoord> getCoords() {
+        return new ArrayList<>(byCoord.keySet());
+    }
+
+    /**
+     * @return a copy of the NPCs waiting to respawn in the chunk
+     */
+    public List<NPC> getNPCs(ChunkCoord coord) {
+        Set<NPC> npcs = byCoord.get(coord);
+        return npcs == null ? new ArrayList<>() : new ArrayList<>(npcs);
+    }
+
+    /**
+     * Queues the NPCs in a freshly loaded chunk to be respawned on later ticks.
+     */
+    public void onChunkLoaded(ChunkCoord coord, Event event) {
+        Set<NPC> npcs = byCoord.get(coord);
+        if (npcs != null && !loaded.containsKey(coord)) {
+            loaded.put(coord, new LoadedChunk(event, npcs));
+        }
+    }
+
+    /**
+     * Stores the NPC for respawn in the given chunk, replacing any previously stored chunk.
+     */
+    public void put(ChunkCoord coord, NPC npc) {
+        ChunkCoord old = coords.put(npc, coord);
+        if (coord.equals(old))
+            return;
+        if (old != null) {
+            removeFromCoord(old, npc);
+        }
+        byCoord.computeIfAbsent(coord, c -> new LinkedHashSet<>()).add(npc);
+    }
+
+    public void remove(ChunkCoord coord, NPC npc) {
+        if (coords.remove(npc, coord)) {
+            removeFromCoord(coord, npc);
+        }
+    }
+
+    public void remove(NPC npc) {
+        ChunkCoord coord = coords.remove(npc);
+        if (coord != null) {
+            removeFromCoord(coord, npc);
+        }
+    }
+
+    private void removeFromCoord(ChunkCoord coord, NPC npc) {
+        Set<NPC> npcs = byCoord.get(coord);
+        if (npcs == null)
+            return;
+        npcs.remove(npc);
+        if (npcs.isEmpty()) {
+            byCoord.remove(coord);
+            loaded.remove(coord);
+        }
+    }
+
+    @Override
+    public void run() {
+        if (loaded.isEmpty())
+            return;
+        int budget = Setting.CHUNK_RESPAWNS_PER_TICK.asInt();
+        // a budget of 0 would never respawn anything, so only positive budgets limit the queue
+        if (budget <= 0) {
+            budget = Integer.MAX_VALUE;
+        }
+        double range = Setting.CHUNK_RESPAWN_PLAYER_RANGE.asDouble();
+        List<ChunkCoord> order = new ArrayList<>(loaded.keySet());
+        Map<ChunkCoord, Boolean> nearPlayer = new HashMap<>();
+        for (ChunkCoord coord : order) {
+            nearPlayer.put(coord, isNearPlayer(coord, range));
+        }
+        // stable sort keeps chunks that loaded earlier ahead within each group
+        order.sort(Comparator.comparing((ChunkCoord coord) -> !nearPlayer.get(coord)));
+        for (ChunkCoord coord : order) {
+            if (budget <= 0)
+                break;
+            LoadedChunk chunk = loaded.get(coord);
+            World world = Bukkit.getWorld(coord.worldUUID);
+            if (chunk == null || world == null || !world.isChunkLoaded(coord.x, coord.z)) {
+                loaded.remove(coord);
+                continue;
+            }
+            while (budget > 0 && !chunk.remaining.isEmpty()) {
+                NPC npc = chunk.remaining.poll();
+                if (!contains(coord, npc))
+                    continue;
+                listener.respawn(coord, npc, chunk.event);
+                budget--;
+            }
+            if (chunk.remaining.isEmpty()) {
+                loaded.remove(coord);
+            }
+        }
+    }
+
+    private boolean isNearPlayer(ChunkCoord coord, double range) {
+        Set<NPC> npcs = byCoord.get(coord);
+        if (npcs == null || npcs.isEmpty())
+            return false;
+        Location loc = npcs.iterator().next().getStoredLocation();
+        return loc != null && loc.getWorld() != null
+                && CitizensAPI.getLocationLookup().getNearbyPlayers(loc, range).iterator().hasNext();
+    }
+
+    private static class LoadedChunk {
+        private final Event event;
+        private final Queue<NPC> remaining;
+
+        public LoadedChunk(Event event, Set<NPC> npcs) {
+            this.event = event;
+            this.remaining = new ArrayDeque<>(npcs);
+        }
+    }
+}
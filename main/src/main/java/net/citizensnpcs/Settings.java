@@ -72,6 +72,11 @@ public class Settings {
         ASTAR_ITERATIONS_PER_TICK("Number of blocks to search per tick (Citizens pathfinder)",
                 "npc.pathfinding.new-finder.iterations-per-tick", "npc.pathfinding.new-finder.iterations-per-tick",
                 250),
+        ASYNC_PATHFINDING(
+                "Whether to run the Citizens pathfinder on worker threads using chunk snapshots<br>Searches with custom block examiners, or that need blocks missing from the snapshot, run synchronously instead",
+                "npc.pathfinding.new-finder.async", false),
+        ASYNC_PATHFINDING_THREADS("Number of worker threads to use for async pathfinding",
+                "npc.pathfinding.new-finder.async-threads", 2),
         AUTH_SERVER_URL("Search for gameprofiles using this URL", "general.authlib.profile-url",
                 "https://sessionserver.mojang.com/session/minecraft/profile/"),
         BOSSBAR_RANGE("The default bossbar range, in blocks", "npc.default.bossbar-view-range", 64),
@@ -92,6 +97,11 @@ public class Settings {
         CHAT_RANGE("Nearby player range in blocks", "npc.chat.options.range", 5),
         CHECK_MINECRAFT_VERSION("Whether to check the minecraft version for compatibility (do not change)",
                 "advanced.check-minecraft-version", true),
+        CHUNK_RESPAWN_PLAYER_RANGE("Chunks with NPCs to respawn within this many blocks of a player are respawned first",
+                "npc.chunks.respawn-player-range", 64),
+        CHUNK_RESPAWNS_PER_TICK(
+                "The maximum number of NPCs to respawn per tick when their chunks load<br>Set to 0 or -1 to respawn all NPCs in a chunk as soon as it loads",
+                "npc.chunks.respawns-per-tick", -1),
         CONTROLLABLE_GROUND_DIRECTION_MODIFIER("The percentage to increase speed when controlling NPCs on the ground",
                 "npc.controllable.ground-direction-modifier", 1.0D),
         DEBUG_CHUNK_LOADS("Debug chunk load stack traces, not as useful in recent Minecraft versions",
@@ -200,6 +210,12 @@ public class Settings {
         HIGHLIGHT_COLOUR("general.color-scheme.message-highlight", "yellow"),
         HOLOGRAM_ALWAYS_UPDATE_POSITION("Whether to always update the hologram position every tick",
                 "npc.hologram.always-update-position", false),
+        HOLOGRAM_PLACEHOLDER_CACHE_DURATION(
+                "How long to reuse the result of hologram placeholders before evaluating them again<br>0 disables the cache",
+                "npc.hologram.placeholder-cache-duration", "0s"),
+        HOLOGRAM_PLACEHOLDER_CACHE_DURATIONS(
+                "Cache durations for specific placeholders, overriding the default placeholder cache duration<br>Each entry is a placeholder followed by a duration, e.g. %server_tps% 10s",
+                "npc.hologram.placeholder-cache-durations", Lists.newArrayList()),
         HOLOGRAM_UPDATE_RATE("How often to update hologram names (including placeholders)",
                 "npc.hologram.update-rate-ticks", "npc.hologram.update-rate", "1s"),
         HOOK_PROTOCOLLIB("Whether to hook into ProtocolLib", "general.interop.protocollib", true),
@@ -208,6 +224,12 @@ public class Settings {
         KEEP_CHUNKS_LOADED("Whether to keep NPC chunks loaded", "npc.chunks.always-keep-loaded", false),
         LOCALE("Controls translation files - defaults to your system language, set to 'en' if English required",
                 "general.translation.locale", ""),
+        LOOK_CLOSE_LINE_OF_SIGHT_CACHE_DURATION(
+                "How long to reuse a realistic looking line of sight check while neither entity moves to a different block<br>Set to 0 to check every time",
+                "npc.look-close.line-of-sight-cache-duration", "10t"),
+        LOOK_CLOSE_MAX_SEARCH_INTERVAL(
+                "The longest delay between searches for a new look close target when no players are in range<br>The delay doubles after each empty search up to this value",
+                "npc.look-close.max-search-interval", "10t"),
         MAX_CONTROLLABLE_FLIGHT_SPEED(
                 "The maximum flying speed that controllable NPCs can reach, in Minecraft velocity units",
                 "npc.controllable.max-flying-speed", 0.75),
@@ -226,11 +248,59 @@ public class Settings {
         MAXIMUM_VISITED_NODES("The maximum number of blocks to check", "npc.pathfinding.maximum-visited-blocks",
                 "npc.pathfinding.minecraft.max-visited-blocks", 1024),
         MESSAGE_COLOUR("general.color-scheme.message", "<green>"),
+        NEW_PATHFINDER_BLOCK_CACHE(
+                "Whether to cache block types and collision shapes per chunk section between searches<br>Cached blocks are discarded when they change or their chunk unloads",
+                "npc.pathfinding.new-finder.block-cache", false),
+        NEW_PATHFINDER_BLOCK_CACHE_TTL(
+                "How long cached chunk sections are kept before being read again<br>Catches block changes that fire no events, such as commands or world editors",
+                "npc.pathfinding.new-finder.block-cache-ttl", "30s"),
         NEW_PATHFINDER_CHECK_BOUNDING_BOXES(
                 "Whether to check bounding boxes when pathfinding such as between fences, inside doors, or other half-blocks",
                 "npc.pathfinding.new-finder.check-bounding-boxes", false),
+        NEW_PATHFINDER_FLOW_FIELD(
+                "Whether walking NPCs navigating to the same destination or entity should share one flow field (a map of walking distances to the destination) instead of each running their own search<br>Only used with the new pathfinder and the default block examiners",
+                "npc.pathfinding.new-finder.flow-field.enabled", false),
+        NEW_PATHFINDER_FLOW_FIELD_EXPANSIONS_PER_TICK(
+                "Number of blocks to expand per tick across all flow fields being built",
+                "npc.pathfinding.new-finder.flow-field.expansions-per-tick", 1024),
+        NEW_PATHFINDER_FLOW_FIELD_MIN_NPCS(
+                "The minimum number of NPCs sharing a destination before a flow field is built<br>NPCs search individually until then",
+                "npc.pathfinding.new-finder.flow-field.min-npcs", 3),
+        NEW_PATHFINDER_FLOW_FIELD_RADIUS("The horizontal radius in blocks around the destination covered by a flow field",
+                "npc.pathfinding.new-finder.flow-field.radius", 32),
+        NEW_PATHFINDER_HIERARCHICAL(
+                "Whether to plan long paths over a coarse graph of chunk sections first, then refine them in shorter segments<br>Falls back to a direct search if the coarse route cannot be followed",
+                "npc.pathfinding.new-finder.hierarchical", false),
+        NEW_PATHFINDER_HIERARCHICAL_EXPANSIONS_PER_TICK(
+                "Number of coarse graph nodes to expand per tick when planning hierarchically",
+                "npc.pathfinding.new-finder.hierarchical-expansions-per-tick", 64),
+        NEW_PATHFINDER_HIERARCHICAL_MIN_DISTANCE("Only plan hierarchically when the destination is further than this",
+                "npc.pathfinding.new-finder.hierarchical-min-distance", 48),
+        NEW_PATHFINDER_HIERARCHICAL_SEGMENT_LENGTH(
+                "The maximum straight line length of each refined segment of a hierarchical path",
+                "npc.pathfinding.new-finder.hierarchical-segment-length", 24),
         NEW_PATHFINDER_OPENS_DOORS("Whether to open doors while pathfinding (should close them as well)",
                 "npc.pathfinding.new-finder.open-doors", false),
+        NEW_PATHFINDER_POOLED_STORAGE(
+                "Whether to reuse pooled node storage keyed by block position between searches, reducing allocation when many NPCs pathfind",
+                "npc.pathfinding.new-finder.pooled-storage", false),
+        NEW_PATHFINDER_REPAIR_DISTANCE(
+                "How far an entity target can move from where the last full search was aimed before the path to it is searched again from scratch instead of being repaired<br>Set to 0 to always search from scratch",
+                "npc.pathfinding.new-finder.repair.max-distance", 0),
+        NEW_PATHFINDER_REPAIR_MAX_ITERATIONS(
+                "The maximum number of blocks to check when repairing a path to a moved entity target before falling back to a full search",
+                "npc.pathfinding.new-finder.repair.max-iterations", 256),
+        NPC_ACTIVITY_TIERS(
+                "Whether to update NPCs with no players nearby less often<br>Navigating NPCs are always updated every tick",
+                "npc.update.activity-tiers.enabled", false),
+        NPC_ACTIVITY_TIER_INACTIVE_INTERVAL("How often in ticks to update NPCs with no players nearby",
+                "npc.update.activity-tiers.inactive-interval-ticks", 20),
+        NPC_ACTIVITY_TIER_NEARBY_INTERVAL(
+                "How often in ticks to update NPCs with a player within twice the active range",
+                "npc.update.activity-tiers.nearby-interval-ticks", 5),
+        NPC_ACTIVITY_TIER_RANGE(
+                "NPCs with a player within this many blocks are updated every tick<br>Overridden by the NPC activation range if set",
+                "npc.update.activity-tiers.active-range", 32),
         NPC_ATTACK_DISTANCE("The range in blocks before attacking the target", "npc.pathfinding.attack-range", 1.75),
         NPC_COMMAND_GLOBAL_COMMAND_COOLDOWN(
                 "The global cooldown before a command can be used again, must be in seconds",
@@ -260,13 +330,52 @@ public class Settings {
         NPC_WATER_SPEED_MODIFIER("Movement speed percentage increase while in water",
                 "npc.movement.water-speed-modifier", 1.15F),
         PACKET_HOLOGRAMS("Use packet NPCs for name holograms (experimental)", "npc.use-packet-holograms", false),
+        PACKET_NPC_DISTANT_UPDATE_INTERVAL(
+                "How often to send movement and metadata updates for packet NPCs when every viewer is further than half the view distance",
+                "npc.packets.distant-update-interval", "3t"),
+        PACKET_NPC_LINKS_PER_PLAYER_PER_TICK(
+                "The maximum number of packet NPCs that can start being shown to a single player each tick<br>Set to -1 to show every NPC in range immediately",
+                "npc.packets.max-links-per-player-per-tick", -1),
+        PACKET_NPC_SHARED_ENCODING(
+                "Whether to encode packet NPC updates once and write the same bytes to every player on the same protocol<br>Always off for holograms and NPCs with per-player rotation, since their packets are rewritten per player",
+                "npc.packets.shared-encoding", false),
+        PACKET_NPC_UNLINK_MARGIN(
+                "How many blocks beyond the view distance a player must move before a packet NPC stops being sent to them",
+                "npc.packets.unlink-margin", 8),
+        PACKET_NPC_VIEW_DISTANCE(
+                "The distance in blocks at which packet NPCs are shown to players<br>Overridden by the NPC tracking range",
+                "npc.packets.view-distance", 48),
         PACKET_UPDATE_DELAY("npc.packets.update-delay", 30),
         PATHFINDER_FALL_DISTANCE(
                 "The default allowed maximum fall distance when pathfinding, set to -1 to use the default value",
                 "npc.pathfinding.allowed-fall-distance", -1),
+        PATHFINDING_BUDGET_ITERATIONS_PER_TICK(
+                "The total number of pathfinding iterations shared between all NPCs each tick<br>Searches beyond the budget are queued and continued on later ticks<br>Set to 0 to let each NPC use its own per-tick limit",
+                "npc.pathfinding.global-budget.iterations-per-tick", 0),
+        PATHFINDING_BUDGET_MAX_MILLIS_PER_TICK(
+                "The maximum time in milliseconds to spend on queued pathfinding each tick",
+                "npc.pathfinding.global-budget.max-millis-per-tick", 5),
+        PATHFINDING_BUDGET_PLAYER_RANGE("Searches by NPCs within this many blocks of a player are prioritised",
+                "npc.pathfinding.global-budget.player-range", 48),
+        PATHFINDING_METRICS_ENABLED(
+                "Whether to record pathfinding time, blocks expanded, path lengths, cache hits and cancel reasons per strategy and NPC<br>View them with /citizens pathmetrics",
+                "npc.pathfinding.metrics.enabled", false),
+        PATHFINDING_METRICS_MAX_SEARCHES(
+                "The number of recent start and goal pairs to keep for exporting and replaying pathfinding metrics",
+                "npc.pathfinding.metrics.max-searches", 1000),
+        PATH_CACHE_ENABLED(
+                "Whether to share computed paths between NPCs with the same start, destination and pathfinder settings<br>Cached paths are discarded when blocks change in the chunks they pass through",
+                "npc.pathfinding.path-cache.enabled", false),
+        PATH_CACHE_MAX_PATHS("The maximum number of paths to keep in the shared path cache",
+                "npc.pathfinding.path-cache.max-paths", 1024),
+        PATH_CACHE_MAX_POINTS("The maximum total number of path points to keep in the shared path cache",
+                "npc.pathfinding.path-cache.max-points", 65536),
         PLACEHOLDER_SKIN_UPDATE_FREQUENCY("How often to update skin placeholders",
                 "npc.skins.placeholder-update-frequency-ticks", "npc.skins.placeholder-update-frequency", "5m"),
         PLAYER_TELEPORT_DELAY("npc.delay-player-teleport-ticks", "npc.delay-player-teleport", -1),
+        PLAYER_TICK_EMPTY_WORLD_INTERVAL(
+                "How often to tick player NPCs in worlds with no real players<br>Player NPCs in worlds with players are always ticked every tick",
+                "npc.player-ticking.empty-world-interval", "1t"),
         REMOVE_PLAYERS_FROM_PLAYER_LIST("Whether to remove NPCs from the Java list of players",
                 "npc.player.remove-from-list", true),
         RESET_YAW_ON_SPAWN(
@@ -283,6 +392,12 @@ public class Settings {
                 "The global view permission that players need to view any NPC shop<br>Defaults to empty (no permission required).",
                 "npc.shops.global-view-permission", "npc.defaults.shops.global-view-permission", ""),
         STORAGE_FILE("storage.file", "saves.yml"),
+        STORAGE_FULL_SAVE_INTERVAL(
+                "When using incremental saves, store every NPC on every nth save to pick up changes that can't be tracked",
+                "storage.save-task.full-save-interval", 6),
+        STORAGE_INCREMENTAL_SAVES(
+                "Whether to store only changed NPCs in the periodic save task and write the save file on a background thread",
+                "storage.save-task.incremental", false),
         TABLIST_REMOVE_PACKET_DELAY("How long to wait before sending the tablist remove packet",
                 "npc.tablist.remove-packet-delay", "1t"),
         TALK_CLOSE_TO_NPCS("Whether to talk to NPCs (and therefore bystanders) as well as players",
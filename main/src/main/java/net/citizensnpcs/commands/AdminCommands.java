@@ -1,5 +1,7 @@
 package net.citizensnpcs.commands;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Map;
 import java.util.WeakHashMap;
 
@@ -9,11 +11,13 @@ import net.citizensnpcs.Citizens;
 import net.citizensnpcs.Settings.Setting;
 import net.citizensnpcs.api.command.Command;
 import net.citizensnpcs.api.command.CommandContext;
+import net.citizensnpcs.api.command.CommandMessages;
 import net.citizensnpcs.api.command.Requirements;
 import net.citizensnpcs.api.command.exception.CommandException;
 import net.citizensnpcs.api.exception.NPCLoadException;
 import net.citizensnpcs.api.npc.NPC;
 import net.citizensnpcs.api.util.Messaging;
+import net.citizensnpcs.npc.ai.PathfindingMetrics;
 import net.citizensnpcs.util.Messages;
 import net.citizensnpcs.util.StringHelper;
 
@@ -34,6 +38,44 @@ public class AdminCommands {
                 + "><hover:show_text:Citizens website including wiki><u>Website</hover></click> <click:open_url:https://discord.gg/Q6pZGSR><hover:show_text:Citizens Support Discord><u>Support</hover></click>");
     }
 
+    @Command(
+            aliases = { "citizens" },
+            usage = "pathmetrics (export|reset|replay)",
+            desc = "",
+            modifiers = { "pathmetrics" },
+            min = 1,
+            max = 2,
+            permission = "citizens.admin")
+    public void pathmetrics(CommandContext args, CommandSender sender, NPC npc) throws CommandException {
+        PathfindingMetrics metrics = PathfindingMetrics.getIfEnabled();
+        if (metrics == null)
+            throw new CommandException(Messages.PATHFINDING_METRICS_DISABLED);
+        String action = args.argsLength() > 1 ? args.getString(1) : "";
+        if (action.equalsIgnoreCase("export")) {
+            File file = new File(plugin.getDataFolder(), "pathfinding-metrics.jsonl");
+            try {
+                Messaging.sendTr(sender, Messages.PATHFINDING_METRICS_EXPORTED, metrics.export(file), file.getName());
+            } catch (IOException e) {
+                e.printStackTrace();
+                throw new CommandException(e.getMessage());
+            }
+        } else if (action.equalsIgnoreCase("reset")) {
+            metrics.reset();
+            Messaging.sendTr(sender, Messages.PATHFINDING_METRICS_RESET);
+        } else if (action.equalsIgnoreCase("replay")) {
+            if (npc == null)
+                throw new CommandException(CommandMessages.MUST_HAVE_SELECTED);
+            int searches = metrics.replay(npc.getNavigator().getDefaultParameters(), result -> Messaging
+                    .sendTr(sender, Messages.PATHFINDING_METRICS_REPLAYED, result[0], result[1], result[2] / 1000000));
+            Messaging.sendTr(sender, Messages.PATHFINDING_METRICS_REPLAYING, searches);
+        } else {
+            Messaging.send(sender, StringHelper.wrapHeader("<green>Pathfinding metrics"));
+            for (String line : metrics.getSummary()) {
+                Messaging.send(sender, line);
+            }
+        }
+    }
+
     @Command(
             aliases = { "citizens" },
             usage = "reload",
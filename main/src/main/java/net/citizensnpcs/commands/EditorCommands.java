@@ -24,7 +24,7 @@ public class EditorCommands {
             max = 1,
             permission = "citizens.npc.edit.copier")
     public void copier(CommandContext args, Player player, NPC npc) {
-        Editor.enterOrLeave(player, new CopierEditor(player, npc));
+        Editor.enterOrLeave(player, new CopierEditor(player, npc), npc);
     }
 
     @Command(
@@ -39,7 +39,7 @@ public class EditorCommands {
         if (!npc.isSpawned())
             throw new CommandException("NPC must be spawned");
 
-        Editor.enterOrLeave(player, new EquipmentEditor(player, npc));
+        Editor.enterOrLeave(player, new EquipmentEditor(player, npc), npc);
     }
 
     @Command(
@@ -60,7 +60,7 @@ public class EditorCommands {
             player.acceptConversationInput(args.getJoinedStrings(1));
             return;
         }
-        Editor.enterOrLeave(player, editor);
+        Editor.enterOrLeave(player, editor, npc);
     }
 
     @Command(
@@ -75,6 +75,6 @@ public class EditorCommands {
             player.acceptConversationInput(args.getJoinedStrings(1));
             return;
         }
-        Editor.enterOrLeave(player, npc.getOrAddTrait(Text.class).getEditor(player));
+        Editor.enterOrLeave(player, npc.getOrAddTrait(Text.class).getEditor(player), npc);
     }
 }
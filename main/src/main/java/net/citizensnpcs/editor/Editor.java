@@ -10,27 +10,40 @@ import org.bukkit.event.HandlerList;
 import org.bukkit.event.Listener;
 
 import net.citizensnpcs.api.CitizensAPI;
+import net.citizensnpcs.api.npc.NPC;
 import net.citizensnpcs.api.util.Messaging;
+import net.citizensnpcs.npc.CitizensNPC;
 import net.citizensnpcs.util.Messages;
 
 // TODO: convert to non-static?
 public abstract class Editor implements Listener {
+    private NPC npc;
+
     public abstract void begin();
 
     public abstract void end();
 
-    private static void enter(Player player, Editor editor) {
+    private static void enter(Player player, Editor editor, NPC npc) {
+        editor.npc = npc;
         editor.begin();
         player.getServer().getPluginManager().registerEvents(editor, CitizensAPI.getPlugin());
         EDITING.put(player.getUniqueId(), editor);
     }
 
     public static void enterOrLeave(Player player, Editor editor) {
+        enterOrLeave(player, editor, null);
+    }
+
+    /**
+     * Enters the editor, or leaves it if the player is already using the same kind of editor. The edited NPC is marked
+     * as changed when the editor is left so that the edits are included in the next incremental save.
+     */
+    public static void enterOrLeave(Player player, Editor editor, NPC npc) {
         if (editor == null)
             return;
         Editor edit = EDITING.get(player.getUniqueId());
         if (edit == null) {
-            enter(player, editor);
+            enter(player, editor, npc);
         } else if (edit.getClass() == editor.getClass()) {
             leave(player);
         } else {
@@ -48,15 +61,23 @@ public abstract class Editor implements Listener {
         Editor editor = EDITING.remove(player.getUniqueId());
         HandlerList.unregisterAll(editor);
         editor.end();
+        markDirty(editor);
     }
 
     public static void leaveAll() {
         for (Entry<UUID, Editor> entry : EDITING.entrySet()) {
             entry.getValue().end();
             HandlerList.unregisterAll(entry.getValue());
+            markDirty(entry.getValue());
         }
         EDITING.clear();
     }
 
+    private static void markDirty(Editor editor) {
+        if (editor.npc instanceof CitizensNPC) {
+            ((CitizensNPC) editor.npc).markDirty();
+        }
+    }
+
     private static final Map<UUID, Editor> EDITING = new HashMap<>();
 }
\ No newline at end of file
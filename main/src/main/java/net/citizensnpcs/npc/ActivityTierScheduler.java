@@ -0,0 +1,117 @@
+package net.citizensnpcs.npc;
+
+import org.bukkit.Location;
+
+import net.citizensnpcs.Settings.Setting;
+import net.citizensnpcs.api.CitizensAPI;
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.api.trait.Trait;
+
+/**
+ * Decides how often an NPC is updated based on how close the nearest player is. NPCs with a player within their
+ * active range (the {@link NPC.Metadata#ACTIVATION_RANGE} if set) are updated every tick, NPCs with a player within
+ * twice that range are updated every few ticks and all others less often still. Navigating NPCs are always updated
+ * every tick, and traits can require more frequent updates using {@link MinimumUpdateRate}.
+ */
+public class ActivityTierScheduler {
+    private int elapsed;
+    private final NPC npc;
+    private int requiredInterval = Integer.MAX_VALUE;
+    private int sinceCheck;
+    private Tier tier = Tier.ACTIVE;
+
+    public ActivityTierScheduler(NPC npc) {
+        this.npc = npc;
+        reset();
+    }
+
+    public Tier getTier() {
+        return tier;
+    }
+
+    /**
+     * Resets the NPC to the active tier and schedules a tier check on the next tick.
+     */
+    public void reset() {
+        elapsed = 0;
+        sinceCheck = CHECK_INTERVAL;
+        tier = Tier.ACTIVE;
+    }
+
+    /**
+     * Called once per entity tick.
+     *
+     * @return the number of ticks elapsed since the last update, or 0 if the NPC should not be updated this tick
+     */
+    public int tick() {
+        elapsed++;
+        if (!Setting.NPC_ACTIVITY_TIERS.asBoolean()) {
+            tier = Tier.ACTIVE;
+            return consume();
+        }
+        if (++sinceCheck >= CHECK_INTERVAL) {
+            sinceCheck = 0;
+            tier = findTier();
+            requiredInterval = findRequiredInterval();
+        }
+        if (npc.getNavigator().isNavigating() || elapsed >= Math.min(tier.getInterval(), requiredInterval))
+            return consume();
+        return 0;
+    }
+
+    private int consume() {
+        int ticks = elapsed;
+        elapsed = 0;
+        return ticks;
+    }
+
+    private int findRequiredInterval() {
+        int interval = Integer.MAX_VALUE;
+        for (Trait trait : npc.getTraits()) {
+            interval = Math.min(interval, REQUIRED_INTERVALS.get(trait.getClass()));
+        }
+        return interval;
+    }
+
+    private Tier findTier() {
+        if (!npc.isSpawned())
+            return Tier.ACTIVE;
+        double range = npc.data().has(NPC.Metadata.ACTIVATION_RANGE)
+                ? npc.data().<Integer> get(NPC.Metadata.ACTIVATION_RANGE)
+                : Setting.NPC_ACTIVITY_TIER_RANGE.asDouble();
+        if (range < 0)
+            return Tier.ACTIVE;
+        Location loc = npc.getEntity().getLocation();
+        if (CitizensAPI.getLocationLookup().getNearbyPlayers(loc, range).iterator().hasNext())
+            return Tier.ACTIVE;
+        if (CitizensAPI.getLocationLookup().getNearbyPlayers(loc, range * 2).iterator().hasNext())
+            return Tier.NEARBY;
+        return Tier.INACTIVE;
+    }
+
+    public enum Tier {
+        ACTIVE,
+        INACTIVE,
+        NEARBY;
+
+        public int getInterval() {
+            switch (this) {
+                case NEARBY:
+                    return Math.max(1, Setting.NPC_ACTIVITY_TIER_NEARBY_INTERVAL.asInt());
+                case INACTIVE:
+                    return Math.max(1, Setting.NPC_ACTIVITY_TIER_INACTIVE_INTERVAL.asInt());
+                default:
+                    return 1;
+            }
+        }
+    }
+
+    private static final int CHECK_INTERVAL = 10;
+    private static final ClassValue<Integer> REQUIRED_INTERVALS = new ClassValue<Integer>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            MinimumUpdateRate rate = type.getAnnotation(MinimumUpdateRate.class);
+            return rate == null ? Integer.MAX_VALUE : Math.max(1, rate.ticks());
+        }
+    };
+}
@@ -0,0 +1,31 @@
+package net.citizensnpcs.npc;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+
+import net.citizensnpcs.api.npc.NPC;
+
+/**
+ * Remembers the metadata values last pushed to an NPC's entity, so that entity state is only updated when the
+ * corresponding value changes. Cleared whenever a new entity is spawned.
+ */
+class AppliedMetadata {
+    private final Map<NPC.Metadata, Object> applied = new EnumMap<>(NPC.Metadata.class);
+
+    public void clear() {
+        applied.clear();
+    }
+
+    /**
+     * Records <code>value</code> as the applied value for the key.
+     *
+     * @return whether the value differs from the last applied value and should be pushed to the entity
+     */
+    public boolean update(NPC.Metadata key, Object value) {
+        if (applied.containsKey(key) && Objects.equals(applied.get(key), value))
+            return false;
+        applied.put(key, value);
+        return true;
+    }
+}
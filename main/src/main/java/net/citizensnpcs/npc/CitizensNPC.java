@@ -2,6 +2,8 @@ package net.citizensnpcs.npc;
 
 import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
@@ -10,6 +12,7 @@ import java.util.function.Consumer;
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.block.Block;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.EntityType;
 import org.bukkit.entity.LivingEntity;
@@ -43,6 +46,7 @@ import net.citizensnpcs.api.trait.Trait;
 import net.citizensnpcs.api.trait.trait.MobType;
 import net.citizensnpcs.api.trait.trait.Spawned;
 import net.citizensnpcs.api.util.DataKey;
+import net.citizensnpcs.api.util.MemoryDataKey;
 import net.citizensnpcs.api.util.Messaging;
 import net.citizensnpcs.npc.ai.CitizensNavigator;
 import net.citizensnpcs.npc.skin.SkinnableEntity;
@@ -57,14 +61,20 @@ import net.citizensnpcs.trait.SneakTrait;
 import net.citizensnpcs.util.ChunkCoord;
 import net.citizensnpcs.util.Messages;
 import net.citizensnpcs.util.NMS;
+import net.citizensnpcs.util.NPCChunkIndex;
 import net.citizensnpcs.util.PlayerAnimation;
 import net.citizensnpcs.util.PlayerUpdateTask;
 import net.citizensnpcs.util.Util;
 
 public class CitizensNPC extends AbstractNPC {
+    private final ActivityTierScheduler activityScheduler = new ActivityTierScheduler(this);
+    private final AppliedMetadata appliedMetadata = new AppliedMetadata();
     private ChunkCoord cachedCoord;
+    private boolean dirty = true;
     private EntityController entityController;
+    private final Location indexLocation = new Location(null, 0, 0, 0);
     private final CitizensNavigator navigator = new CitizensNavigator(this);
+    private Location savedLocation;
     private int updateCounter = 0;
 
     public CitizensNPC(UUID uuid, int id, String name, EntityController controller, NPCRegistry registry) {
@@ -79,6 +89,7 @@ public class CitizensNPC extends AbstractNPC {
             if (reason == DespawnReason.RELOAD) {
                 unloadEvents();
             }
+            removeFromChunkIndex();
             return true;
         }
         NPCDespawnEvent event = new NPCDespawnEvent(this, reason);
@@ -115,6 +126,8 @@ public class CitizensNPC extends AbstractNPC {
         } else {
             entityController.remove();
         }
+        removeFromChunkIndex();
+        markDirty();
         return true;
     }
 
@@ -156,6 +169,25 @@ public class CitizensNPC extends AbstractNPC {
         return isSpawned() ? getEntity().getLocation() : getOrAddTrait(CurrentLocation.class).getLocation();
     }
 
+    /**
+     * @return the values the NPC would currently save, by path, without affecting whether it needs to be saved
+     */
+    public Map<String, Object> getStoredValues() {
+        boolean wasDirty = dirty;
+        Location wasSaved = savedLocation;
+        MemoryDataKey key = new MemoryDataKey();
+        save(key);
+        dirty = wasDirty;
+        savedLocation = wasSaved;
+        Map<String, Object> values = new HashMap<>();
+        for (Map.Entry<String, Object> entry : key.getSection("").getValues(true).entrySet()) {
+            if (!(entry.getValue() instanceof ConfigurationSection)) {
+                values.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return values;
+    }
+
     @Override
     public boolean isFlyable() {
         updateFlyableState();
@@ -189,12 +221,41 @@ public class CitizensNPC extends AbstractNPC {
         navigator.load(root.getRelative("navigator"));
     }
 
+    /**
+     * Marks the NPC as changed so that it is stored by the next incremental save.
+     */
+    public void markDirty() {
+        dirty = true;
+    }
+
+    /**
+     * @return whether the NPC was marked dirty or has moved since it was last saved. Turning in place (for example
+     *         while looking at players) does not count as moving.
+     */
+    public boolean needsSave() {
+        if (dirty)
+            return true;
+        if (!isSpawned())
+            return false;
+        Location location = getEntity().getLocation();
+        return savedLocation == null || location.getWorld() != savedLocation.getWorld()
+                || location.getX() != savedLocation.getX() || location.getY() != savedLocation.getY()
+                || location.getZ() != savedLocation.getZ();
+    }
+
     @Override
     public boolean requiresNameHologram() {
         return !data().has(NPC.Metadata.HOLOGRAM_RENDERER)
                 && (super.requiresNameHologram() || Setting.ALWAYS_USE_NAME_HOLOGRAM.asBoolean());
     }
 
+    private void removeFromChunkIndex() {
+        NPCChunkIndex index = NPCChunkIndex.getInstance();
+        if (index != null) {
+            index.remove(this);
+        }
+    }
+
     private void resetCachedCoord() {
         if (cachedCoord == null)
             return;
@@ -209,6 +270,8 @@ public class CitizensNPC extends AbstractNPC {
     @Override
     public void save(DataKey root) {
         super.save(root);
+        dirty = false;
+        savedLocation = isSpawned() ? getEntity().getLocation() : null;
 
         if (!data().get(NPC.Metadata.SHOULD_SAVE, true))
             return;
@@ -228,6 +291,7 @@ public class CitizensNPC extends AbstractNPC {
         EntityController controller = EntityControllers.createForType(type);
         if (controller == null)
             throw new IllegalArgumentException("Unsupported entity type " + type);
+        markDirty();
         setEntityController(controller);
     }
 
@@ -269,6 +333,7 @@ public class CitizensNPC extends AbstractNPC {
     @Override
     protected void setNameInternal(String name) {
         super.setNameInternal(name);
+        markDirty();
         if (requiresNameHologram() && !hasTrait(HologramTrait.class)) {
             addTrait(HologramTrait.class);
         }
@@ -374,6 +439,10 @@ public class CitizensNPC extends AbstractNPC {
                     return;
                 }
                 navigator.onSpawn();
+                activityScheduler.reset();
+                appliedMetadata.clear();
+                updateChunkIndex();
+                markDirty();
 
                 for (Trait trait : traits.values().toArray(ObjectArrays.newArray(Trait.class, traits.size()))) {
                     try {
@@ -412,7 +481,7 @@ public class CitizensNPC extends AbstractNPC {
                     addTrait(HologramTrait.class);
                 }
                 updateFlyableState();
-                updateCustomNameVisibility();
+                updateCustomNameVisibility(true);
                 updateScoreboard();
 
                 Messaging.debug("Spawned", CitizensNPC.this, "SpawnReason." + reason);
@@ -468,6 +537,14 @@ public class CitizensNPC extends AbstractNPC {
     @Override
     public void update() {
         try {
+            int ticks = 1;
+            ChunkCoord currentCoord = null;
+            if (isSpawned()) {
+                currentCoord = updateChunkIndex();
+                ticks = activityScheduler.tick();
+            }
+            if (ticks == 0)
+                return;
             super.update();
             if (!isSpawned()) {
                 resetCachedCoord();
@@ -499,15 +576,20 @@ public class CitizensNPC extends AbstractNPC {
                 }
             }
             if (SUPPORT_GLOWING && data().has(NPC.Metadata.GLOWING)) {
-                getEntity().setGlowing(data().get(NPC.Metadata.GLOWING, false));
+                Object glowing = data().get(NPC.Metadata.GLOWING);
+                if (appliedMetadata.update(NPC.Metadata.GLOWING, glowing)) {
+                    getEntity().setGlowing((Boolean) glowing);
+                }
             }
             if (SUPPORT_SILENT && data().has(NPC.Metadata.SILENT)) {
-                getEntity().setSilent(Boolean.parseBoolean(data().get(NPC.Metadata.SILENT).toString()));
+                Object silent = data().get(NPC.Metadata.SILENT);
+                if (appliedMetadata.update(NPC.Metadata.SILENT, silent)) {
+                    getEntity().setSilent(Boolean.parseBoolean(silent.toString()));
+                }
             }
             boolean isLiving = getEntity() instanceof LivingEntity;
             if (isUpdating(NPCUpdate.PACKET)) {
                 if (data().get(NPC.Metadata.KEEP_CHUNK_LOADED, Setting.KEEP_CHUNKS_LOADED.asBoolean())) {
-                    ChunkCoord currentCoord = new ChunkCoord(loc);
                     if (!currentCoord.equals(cachedCoord)) {
                         resetCachedCoord();
                         currentCoord.setForceLoaded(true);
@@ -520,12 +602,18 @@ public class CitizensNPC extends AbstractNPC {
                 }
                 updateCounter = 0;
             }
-            updateCustomNameVisibility();
+            updateCustomNameVisibility(false);
 
             if (isLiving) {
-                NMS.setKnockbackResistance((LivingEntity) getEntity(), isProtected() ? 1D : 0D);
+                boolean protect = isProtected();
+                if (appliedMetadata.update(NPC.Metadata.DEFAULT_PROTECTED, protect)) {
+                    NMS.setKnockbackResistance((LivingEntity) getEntity(), protect ? 1D : 0D);
+                }
                 if (SUPPORT_PICKUP_ITEMS) {
-                    ((LivingEntity) getEntity()).setCanPickupItems(data().get(NPC.Metadata.PICKUP_ITEMS, false));
+                    boolean pickup = data().get(NPC.Metadata.PICKUP_ITEMS, false);
+                    if (appliedMetadata.update(NPC.Metadata.PICKUP_ITEMS, pickup)) {
+                        ((LivingEntity) getEntity()).setCanPickupItems(pickup);
+                    }
                 }
                 if (getEntity() instanceof Player) {
                     updateUsingItemState((Player) getEntity());
@@ -533,7 +621,7 @@ public class CitizensNPC extends AbstractNPC {
             }
             navigator.run();
 
-            updateCounter++;
+            updateCounter += ticks;
         } catch (Exception ex) {
             Throwable error = Throwables.getRootCause(ex);
             Messaging.logTr(Messages.EXCEPTION_UPDATING_NPC, getId(), error.getMessage());
@@ -541,6 +629,12 @@ public class CitizensNPC extends AbstractNPC {
         }
     }
 
+    private ChunkCoord updateChunkIndex() {
+        Location loc = getEntity().getLocation(indexLocation);
+        NPCChunkIndex index = NPCChunkIndex.getInstance();
+        return index != null ? index.update(this, loc) : new ChunkCoord(loc);
+    }
+
     private void updateCustomName() {
         if (getEntity() == null)
             return;
@@ -551,11 +645,14 @@ public class CitizensNPC extends AbstractNPC {
         }
     }
 
-    private void updateCustomNameVisibility() {
+    private void updateCustomNameVisibility(boolean force) {
         String nameplateVisible = data().<Object> get(NPC.Metadata.NAMEPLATE_VISIBLE, true).toString();
         if (requiresNameHologram()) {
             nameplateVisible = "false";
         }
+        // the name itself is pushed by setNameInternal, so only visibility changes need to be applied here
+        if (!appliedMetadata.update(NPC.Metadata.NAMEPLATE_VISIBLE, nameplateVisible) && !force)
+            return;
         if (nameplateVisible.equals("true") || nameplateVisible.equals("hover")) {
             updateCustomName();
         }
@@ -0,0 +1,21 @@
+package net.citizensnpcs.npc;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import net.citizensnpcs.api.trait.Trait;
+
+/**
+ * Declares how often a {@link Trait} must be run. NPCs with an annotated trait are updated at least every
+ * {@link #ticks()} ticks, even when {@link ActivityTierScheduler} would otherwise update them less often.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface MinimumUpdateRate {
+    /**
+     * @return the maximum number of ticks between runs of the trait
+     */
+    int ticks() default 1;
+}
@@ -1,6 +1,11 @@
 package net.citizensnpcs.npc.ai;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.bukkit.Effect;
 import org.bukkit.Location;
@@ -9,6 +14,7 @@ import org.bukkit.entity.EntityType;
 import org.bukkit.entity.LivingEntity;
 import org.bukkit.util.Vector;
 
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 
 import net.citizensnpcs.Settings.Setting;
@@ -26,15 +32,23 @@ import net.citizensnpcs.api.astar.pathfinder.PathPoint;
 import net.citizensnpcs.api.astar.pathfinder.VectorGoal;
 import net.citizensnpcs.api.astar.pathfinder.VectorNode;
 import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.api.util.Messaging;
+import net.citizensnpcs.npc.ai.ChunkSnapshotBlockSource.SnapshotMissException;
 import net.citizensnpcs.util.NMS;
 import net.citizensnpcs.util.Util;
 
 public class AStarNavigationStrategy extends AbstractPathStrategy {
+    private String cacheSignature;
+    private RegionGraph.Search coarse;
     private final Location destination;
+    private Location from;
+    private PathfindingScheduler.Job job;
     private final NPC npc;
     private final NavigatorParameters params;
     private Path plan;
     private AStarPlanner planner;
+    private List<Vector> refined;
+    private List<Vector> route;
     private Vector vector;
 
     public AStarNavigationStrategy(NPC npc, Iterable<Vector> path, NavigatorParameters params) {
@@ -51,7 +65,52 @@ public class AStarNavigationStrategy extends AbstractPathStrategy {
         this.params = params;
         destination = dest;
         this.npc = npc;
-        planner = new AStarPlanner(params, npc.getEntity().getLocation(), destination);
+        from = npc.getEntity().getLocation();
+        PathCache cache = PathCache.getIfEnabled();
+        if (cache != null) {
+            cacheSignature = PathCache.signature(npc, params);
+            List<Vector> cached = cache.get(from, destination, cacheSignature);
+            if (cached != null) {
+                plan = new Path(cached);
+                PathfindingMetrics metrics = PathfindingMetrics.getIfEnabled();
+                if (metrics != null) {
+                    metrics.recordCacheHit(getClass().getSimpleName());
+                }
+                return;
+            }
+        }
+        RegionGraph graph = RegionGraph.getIfEnabled();
+        double minDistance = Setting.NEW_PATHFINDER_HIERARCHICAL_MIN_DISTANCE.asDouble();
+        if (graph != null && from.getWorld() == destination.getWorld()
+                && from.distanceSquared(destination) > minDistance * minDistance) {
+            coarse = graph.search(from, destination);
+            return;
+        }
+        planner = new AStarPlanner(params, from, destination, AsyncPathfinder.isEnabled());
+    }
+
+    /**
+     * Adds the refined segment to the hierarchical path and starts planning the next one.
+     *
+     * @return whether the whole path has been refined
+     */
+    private boolean addSegment(Iterable<Vector> segment) {
+        for (Vector point : segment) {
+            if (refined.isEmpty() || !refined.get(refined.size() - 1).equals(point)) {
+                refined.add(point);
+            }
+        }
+        if (route.isEmpty())
+            return true;
+        Location start = refined.isEmpty() ? from : refined.get(refined.size() - 1).toLocation(from.getWorld());
+        double length = Setting.NEW_PATHFINDER_HIERARCHICAL_SEGMENT_LENGTH.asDouble();
+        Vector target = route.remove(0);
+        // skip ahead to the furthest waypoint that is still within one segment
+        while (!route.isEmpty() && route.get(0).distanceSquared(start.toVector()) <= length * length) {
+            target = route.remove(0);
+        }
+        planner = new AStarPlanner(params, start, target.toLocation(from.getWorld()), AsyncPathfinder.isEnabled());
+        return false;
     }
 
     @Override
@@ -71,6 +130,17 @@ public class AStarNavigationStrategy extends AbstractPathStrategy {
 
     @Override
     public void stop() {
+        if (job != null) {
+            job.cancel();
+            job = null;
+        }
+        coarse = null;
+        route = null;
+        refined = null;
+        if (planner != null) {
+            planner.cancel();
+            planner = null;
+        }
         if (plan != null && params.debug()) {
             Util.sendBlockChanges(plan.getBlocks(npc.getEntity().getWorld()), null);
         }
@@ -79,13 +149,65 @@ public class AStarNavigationStrategy extends AbstractPathStrategy {
 
     @Override
     public boolean update() {
+        if (coarse != null) {
+            if (!coarse.tick(Setting.NEW_PATHFINDER_HIERARCHICAL_EXPANSIONS_PER_TICK.asInt()))
+                return false;
+            route = coarse.getRoute();
+            coarse = null;
+            if (route == null) {
+                planner = new AStarPlanner(params, from, destination, AsyncPathfinder.isEnabled());
+            } else {
+                refined = new ArrayList<>();
+                addSegment(Collections.emptyList());
+            }
+        }
         if (planner != null) {
-            CancelReason reason = planner.tick(Setting.ASTAR_ITERATIONS_PER_TICK.asInt(),
-                    Setting.MAXIMUM_ASTAR_ITERATIONS.asInt());
+            PathfindingScheduler scheduler = planner.async ? null : PathfindingScheduler.getIfEnabled();
+            if (job == null && scheduler != null) {
+                job = scheduler.submit(npc, planner);
+            }
+            CancelReason reason;
+            if (job != null) {
+                if (!job.isDone())
+                    return false;
+                reason = job.getCancelReason();
+                job = null;
+            } else {
+                reason = planner.tick(Setting.ASTAR_ITERATIONS_PER_TICK.asInt(),
+                        Setting.MAXIMUM_ASTAR_ITERATIONS.asInt());
+            }
             plan = planner.plan;
             if (reason == null && plan == null)
                 return false;
+            PathfindingMetrics metrics = PathfindingMetrics.getIfEnabled();
+            if (metrics != null) {
+                metrics.recordSearch(npc, getClass().getSimpleName(), planner.from, planner.to, planner.nanos,
+                        planner.expanded, plan == null ? -1 : Iterables.size(plan.getPath()));
+            }
+            if (route != null) {
+                planner = null;
+                if (reason == CancelReason.STUCK) {
+                    // the coarse route could not be followed, search the whole way directly instead
+                    route = null;
+                    refined = null;
+                    planner = new AStarPlanner(params, from, destination, AsyncPathfinder.isEnabled());
+                    return false;
+                }
+                if (plan != null) {
+                    if (!addSegment(plan.getPath())) {
+                        plan = null;
+                        return false;
+                    }
+                    plan = new Path(refined);
+                }
+                route = null;
+                refined = null;
+            }
             setCancelReason(reason);
+            PathCache cache = PathCache.getIfEnabled();
+            if (cache != null && cacheSignature != null && plan != null) {
+                cache.put(from, destination, cacheSignature, plan.getPath());
+            }
             planner = null;
         }
         if (getCancelReason() != null || plan == null || plan.isComplete())
@@ -136,60 +258,219 @@ public class AStarNavigationStrategy extends AbstractPathStrategy {
     }
 
     public static class AStarPlanner {
+        private boolean async;
+        // the machine does not report how many blocks it expanded
+        int expanded = -1;
         Location from;
         int iterations;
+        private AStarMachine<VectorNode, Path> machine;
+        volatile long nanos;
         NavigatorParameters params;
+        private Future<Path> pending;
         Path plan;
         AStarState state;
+        private ChunkSnapshotBlockSource snapshot;
+        private PooledAStarStorage storage;
         Location to;
 
         public AStarPlanner(NavigatorParameters params, Location from, Location to) {
+            this(params, from, to, false);
+        }
+
+        /**
+         * @param async
+         *            whether to search on the {@link AsyncPathfinder} pool against a snapshot of the surrounding chunks.
+         *            The resulting {@link Path} is delivered by the first {@link #tick(int, int)} after the search
+         *            completes. Searches with examiners that may read the live world, or that need blocks missing from
+         *            the snapshot, run on the main thread instead.
+         */
+        public AStarPlanner(NavigatorParameters params, Location from, Location to, boolean async) {
             this.params = params;
             this.from = from;
             this.to = to;
-            params.examiner(new BlockExaminer() {
-                @Override
-                public float getCost(BlockSource source, PathPoint point) {
-                    Vector pos = point.getVector();
-                    Material above = source.getMaterialAt(pos.getBlockX(), pos.getBlockY() + 1, pos.getBlockZ());
-                    return params.avoidWater() && (MinecraftBlockExaminer.isLiquid(above)
-                            || MinecraftBlockExaminer.isLiquidOrInLiquid(pos.toLocation(source.getWorld()).getBlock()))
-                                    ? 2F
-                                    : 0F;
+            boolean avoidWater = false;
+            for (BlockExaminer examiner : params.examiners()) {
+                avoidWater |= examiner instanceof AvoidWaterExaminer;
+            }
+            // hierarchical paths plan several segments with the same parameters
+            if (!avoidWater) {
+                params.examiner(new AvoidWaterExaminer(params));
+            }
+            if (async && isSnapshotSafe(params)) {
+                ChunkSnapshotBlockSource snapshot = new ChunkSnapshotBlockSource(from, to, params.range(),
+                        SNAPSHOT_MARGIN);
+                if (!snapshot.isEmpty()) {
+                    this.snapshot = snapshot;
+                    this.async = true;
+                    search(snapshot);
+                    return;
                 }
+            }
+            search(new NMSChunkBlockSource(from, params.range()));
+        }
 
-                @Override
-                public PassableState isPassable(BlockSource source, PathPoint point) {
-                    return PassableState.IGNORE;
-                }
-            });
+        public void cancel() {
+            if (pending != null) {
+                pending.cancel(false);
+                pending = null;
+                // the worker may still be using the storage, leave it to be collected
+                storage = null;
+            }
+            release();
+        }
+
+        private CancelReason finish(CancelReason reason) {
+            release();
+            return reason;
+        }
+
+        private void release() {
+            if (storage != null) {
+                storage.release();
+                storage = null;
+            }
+        }
+
+        private void search(BlockSource source) {
+            release();
+            if (Setting.NEW_PATHFINDER_POOLED_STORAGE.asBoolean()) {
+                PooledAStarStorage pooled = PooledAStarStorage.acquire();
+                storage = pooled;
+                machine = AStarMachine.createWithStorage(() -> pooled);
+            } else {
+                machine = ASTAR;
+            }
             VectorGoal goal = new VectorGoal(to, (float) params.pathDistanceMargin());
-            state = ASTAR.getStateFor(goal,
-                    new VectorNode(goal, from, new NMSChunkBlockSource(from, params.range()), params.examiners()));
+            state = machine.getStateFor(goal, new VectorNode(goal, from, source, params.examiners()));
+        }
+
+        /**
+         * Restarts the search against the live world on the main thread.
+         */
+        private void searchSync() {
+            async = false;
+            snapshot = null;
+            search(new NMSChunkBlockSource(from, params.range()));
+        }
+
+        private void setPlan(Path plan) {
+            this.plan = plan;
+            if (params.debug()) {
+                Util.sendBlockChanges(plan.getBlocks(to.getWorld()),
+                        Util.getFallbackMaterial("DANDELION", "YELLOW_FLOWER"));
+            }
         }
 
         public CancelReason tick(int iterationsPerTick, int maxIterations) {
             if (plan != null)
                 return null;
-            Path plan = ASTAR.run(state, iterationsPerTick);
+            if (async)
+                return tickAsync(maxIterations);
+            long start = System.nanoTime();
+            Path plan = machine.run(state, iterationsPerTick);
+            nanos += System.nanoTime() - start;
             if (plan == null) {
                 if (state.isEmpty())
-                    return CancelReason.STUCK;
+                    return finish(CancelReason.STUCK);
                 if (iterationsPerTick > 0 && maxIterations > 0) {
                     iterations += iterationsPerTick;
                     if (iterations > maxIterations)
-                        return CancelReason.STUCK;
+                        return finish(CancelReason.STUCK);
                 }
             } else {
-                this.plan = plan;
-                if (params.debug()) {
-                    Util.sendBlockChanges(plan.getBlocks(to.getWorld()),
-                            Util.getFallbackMaterial("DANDELION", "YELLOW_FLOWER"));
+                setPlan(plan);
+                release();
+            }
+            return null;
+        }
+
+        private CancelReason tickAsync(int maxIterations) {
+            if (pending == null) {
+                AStarState search = state;
+                int iterations = maxIterations > 0 ? maxIterations : -1;
+                pending = AsyncPathfinder.submit(() -> {
+                    long start = System.nanoTime();
+                    try {
+                        return machine.run(search, iterations);
+                    } finally {
+                        nanos += System.nanoTime() - start;
+                    }
+                });
+                if (pending == null) {
+                    // pool is saturated, search on the main thread
+                    searchSync();
+                }
+                return null;
+            }
+            if (!pending.isDone())
+                return null;
+            Path plan;
+            try {
+                plan = pending.get();
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof SnapshotMissException)) {
+                    Messaging.debug("Async pathfinding failed from", from, "to", to, e);
+                    return finish(CancelReason.STUCK);
                 }
+                snapshot.recordShapes((SnapshotMissException) e.getCause());
+                searchSync();
+                return null;
+            } catch (InterruptedException | CancellationException e) {
+                Messaging.debug("Async pathfinding failed from", from, "to", to, e);
+                return finish(CancelReason.STUCK);
+            } finally {
+                pending = null;
             }
+            if (plan == null)
+                return finish(CancelReason.STUCK);
+            setPlan(plan);
+            release();
             return null;
         }
     }
 
+    static class AvoidWaterExaminer implements BlockExaminer {
+        private final NavigatorParameters params;
+
+        AvoidWaterExaminer(NavigatorParameters params) {
+            this.params = params;
+        }
+
+        @Override
+        public float getCost(BlockSource source, PathPoint point) {
+            if (!params.avoidWater())
+                return 0F;
+            Vector pos = point.getVector();
+            Material above = source.getMaterialAt(pos.getBlockX(), pos.getBlockY() + 1, pos.getBlockZ());
+            if (MinecraftBlockExaminer.isLiquid(above))
+                return 2F;
+            boolean inLiquid = source instanceof ChunkSnapshotBlockSource
+                    ? ((ChunkSnapshotBlockSource) source).isLiquidOrInLiquid(pos.getBlockX(), pos.getBlockY(),
+                            pos.getBlockZ())
+                    : MinecraftBlockExaminer.isLiquidOrInLiquid(
+                            source.getWorld().getBlockAt(pos.getBlockX(), pos.getBlockY(), pos.getBlockZ()));
+            return inLiquid ? 2F : 0F;
+        }
+
+        @Override
+        public PassableState isPassable(BlockSource source, PathPoint point) {
+            return PassableState.IGNORE;
+        }
+    }
+
+    /**
+     * @return whether every examiner reads blocks only through the {@link BlockSource}, so that the search can run
+     *         against a {@link ChunkSnapshotBlockSource}
+     */
+    private static boolean isSnapshotSafe(NavigatorParameters params) {
+        for (BlockExaminer examiner : params.examiners()) {
+            if (!(examiner instanceof MinecraftBlockExaminer) && !(examiner instanceof AvoidWaterExaminer))
+                return false;
+        }
+        return true;
+    }
+
     private static AStarMachine<VectorNode, Path> ASTAR = AStarMachine.createWithDefaultStorage();
+    private static final int SNAPSHOT_MARGIN = 16;
+
 }
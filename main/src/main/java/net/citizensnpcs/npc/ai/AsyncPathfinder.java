@@ -0,0 +1,61 @@
+package net.citizensnpcs.npc.ai;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.citizensnpcs.Settings.Setting;
+
+/**
+ * A bounded worker pool for running pathfinding searches off the main thread.
+ */
+public class AsyncPathfinder {
+    private AsyncPathfinder() {
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (EXECUTOR == null || EXECUTOR.isShutdown()) {
+            int threads = Math.max(1, Setting.ASYNC_PATHFINDING_THREADS.asInt());
+            AtomicInteger counter = new AtomicInteger();
+            EXECUTOR = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(MAX_QUEUED_TASKS), runnable -> {
+                        Thread thread = new Thread(runnable, "Citizens-Pathfinder-" + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            EXECUTOR.allowCoreThreadTimeOut(true);
+        }
+        return EXECUTOR;
+    }
+
+    public static boolean isEnabled() {
+        return Setting.ASYNC_PATHFINDING.asBoolean() && ChunkSnapshotBlockSource.isSupported();
+    }
+
+    public static synchronized void shutdown() {
+        if (EXECUTOR == null)
+            return;
+        EXECUTOR.shutdownNow();
+        EXECUTOR = null;
+    }
+
+    /**
+     * Submits a search to the worker pool.
+     *
+     * @return the pending result, or null if the pool is saturated and the caller should search synchronously
+     */
+    public static <T> Future<T> submit(Callable<T> task) {
+        try {
+            return getExecutor().submit(task);
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+    }
+
+    private static ThreadPoolExecutor EXECUTOR;
+    private static final int MAX_QUEUED_TASKS = 512;
+}
@@ -0,0 +1,225 @@
+package net.citizensnpcs.npc.ai;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.world.ChunkUnloadEvent;
+
+import net.citizensnpcs.Citizens;
+import net.citizensnpcs.Settings.Setting;
+import net.citizensnpcs.api.CitizensAPI;
+import net.citizensnpcs.api.util.BoundingBox;
+import net.citizensnpcs.api.util.SpigotUtil;
+import net.citizensnpcs.npc.ai.ChunkSnapshotBlockSource.SnapshotMissException;
+import net.citizensnpcs.util.NMS;
+
+/**
+ * A per-world cache of block materials and collision shapes, stored as packed <code>int</code>s in 16x16x16 chunk
+ * sections. Entries are filled lazily on the main thread. A changed block replaces its section with a fresh one, an
+ * unloaded chunk drops all of its sections and sections expire after {@link Setting#NEW_PATHFINDER_BLOCK_CACHE_TTL} to
+ * pick up changes that fire no events, so lookups for blocks that have already been examined are array reads that any
+ * planner thread can share. Lookups off the main thread that miss the cache throw a {@link SnapshotMissException}
+ * rather than reading the live world.
+ */
+public class BlockSnapshotCache extends BlockChangeListener {
+    private final List<BoundingBox> shapes = new CopyOnWriteArrayList<>();
+    private final Map<UUID, WorldCache> worlds = new ConcurrentHashMap<>();
+
+    public void clear() {
+        worlds.clear();
+        shapes.clear();
+    }
+
+    @Override
+    protected void blockChanged(Block block) {
+        WorldCache cache = worlds.get(block.getWorld().getUID());
+        if (cache == null)
+            return;
+        // connecting blocks such as fences and stairs change shape with their horizontal neighbours
+        invalidate(cache, block.getX(), block.getY(), block.getZ());
+        invalidate(cache, block.getX() + 1, block.getY(), block.getZ());
+        invalidate(cache, block.getX() - 1, block.getY(), block.getZ());
+        invalidate(cache, block.getX(), block.getY(), block.getZ() + 1);
+        invalidate(cache, block.getX(), block.getY(), block.getZ() - 1);
+    }
+
+    /**
+     * @return the collision box of the block at the given chunk-relative coordinates, in world coordinates
+     */
+    public BoundingBox getCollisionBox(Chunk chunk, int x, int y, int z) {
+        return getCollisionBox(getWorldCache(chunk.getWorld()), chunk, x, y, z);
+    }
+
+    BoundingBox getCollisionBox(WorldCache cache, Chunk chunk, int x, int y, int z) {
+        Section section = getSection(cache, chunk, y);
+        if (section == null)
+            return NMS.getCollisionBox(getLiveBlock(chunk, x, y, z));
+        int idx = index(x, y, z);
+        int shape = section.data[idx] >>> 16;
+        if (shape == SHAPE_EMPTY)
+            return BoundingBox.EMPTY;
+        if (shape > SHAPE_EMPTY && shape - SHAPE_OFFSET < shapes.size())
+            return shapes.get(shape - SHAPE_OFFSET).add((chunk.getX() << 4) + x, y, (chunk.getZ() << 4) + z);
+        Block block = getLiveBlock(chunk, x, y, z);
+        BoundingBox box = NMS.getCollisionBox(block);
+        int id = box == BoundingBox.EMPTY ? SHAPE_EMPTY : intern(box.add(-block.getX(), -block.getY(), -block.getZ()));
+        if (id != SHAPE_UNKNOWN) {
+            section.data[idx] = id << 16 | section.data[idx] & 0xFFFF;
+        }
+        return box;
+    }
+
+    /**
+     * @return the material of the block at the given chunk-relative coordinates
+     */
+    public Material getType(Chunk chunk, int x, int y, int z) {
+        return getType(getWorldCache(chunk.getWorld()), chunk, x, y, z);
+    }
+
+    Material getType(WorldCache cache, Chunk chunk, int x, int y, int z) {
+        Section section = getSection(cache, chunk, y);
+        if (section == null)
+            return getLiveBlock(chunk, x, y, z).getType();
+        int idx = index(x, y, z);
+        int material = section.data[idx] & 0xFFFF;
+        if (material != 0)
+            return MATERIALS[material - 1];
+        Material type = getLiveBlock(chunk, x, y, z).getType();
+        section.data[idx] = section.data[idx] & 0xFFFF0000 | type.ordinal() + 1;
+        return type;
+    }
+
+    WorldCache getWorldCache(World world) {
+        WorldCache cache = worlds.get(world.getUID());
+        if (cache == null && Bukkit.isPrimaryThread()) {
+            cache = worlds.computeIfAbsent(world.getUID(), uuid -> new WorldCache());
+        }
+        return cache;
+    }
+
+    private void invalidate(WorldCache cache, int x, int y, int z) {
+        ChunkSections chunk = cache.chunks.get(chunkKey(x >> 4, z >> 4));
+        if (chunk != null) {
+            chunk.sections.set(y >> 4 & 0xFF, null);
+        }
+    }
+
+    private int intern(BoundingBox relative) {
+        for (int i = 0; i < shapes.size(); i++) {
+            BoundingBox other = shapes.get(i);
+            if (other.minX == relative.minX && other.minY == relative.minY && other.minZ == relative.minZ
+                    && other.maxX == relative.maxX && other.maxY == relative.maxY && other.maxZ == relative.maxZ)
+                return i + SHAPE_OFFSET;
+        }
+        if (shapes.size() + SHAPE_OFFSET > 0xFFFF)
+            return SHAPE_UNKNOWN;
+        shapes.add(relative);
+        return shapes.size() - 1 + SHAPE_OFFSET;
+    }
+
+    /**
+     * Drops every cached section in the unloaded chunk, since the chunk may be modified or regenerated before it is
+     * loaded again.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        WorldCache cache = worlds.get(event.getWorld().getUID());
+        if (cache == null)
+            return;
+        cache.chunks.remove(chunkKey(event.getChunk().getX(), event.getChunk().getZ()));
+    }
+
+    @Override
+    protected void worldUnloaded(World world) {
+        worlds.remove(world.getUID());
+    }
+
+    private Section getSection(WorldCache cache, Chunk chunk, int y) {
+        if (cache == null || !SpigotUtil.checkYSafe(y, chunk.getWorld()))
+            return null;
+        long key = chunkKey(chunk.getX(), chunk.getZ());
+        ChunkSections sections = cache.chunks.get(key);
+        boolean primary = Bukkit.isPrimaryThread();
+        if (sections == null) {
+            if (!primary)
+                return null;
+            sections = cache.chunks.computeIfAbsent(key, k -> new ChunkSections());
+        }
+        Section section = sections.sections.get(y >> 4 & 0xFF);
+        if (section != null && section.expires < System.currentTimeMillis()) {
+            section = null;
+        }
+        if (section == null && primary) {
+            section = new Section(System.currentTimeMillis()
+                    + TimeUnit.SECONDS.toMillis(Setting.NEW_PATHFINDER_BLOCK_CACHE_TTL.asSeconds()));
+            sections.sections.set(y >> 4 & 0xFF, section);
+        }
+        return section;
+    }
+
+    private static class ChunkSections {
+        // section y coordinates span at most 256 values, so the low byte is a unique index
+        private final AtomicReferenceArray<Section> sections = new AtomicReferenceArray<>(256);
+    }
+
+    private static class Section {
+        // low 16 bits: material ordinal + 1, high 16 bits: shape id; 0 means not yet examined
+        private final int[] data = new int[16 * 16 * 16];
+        private final long expires;
+
+        private Section(long expires) {
+            this.expires = expires;
+        }
+    }
+
+    static class WorldCache {
+        private final Map<Long, ChunkSections> chunks = new ConcurrentHashMap<>();
+    }
+
+    private static long chunkKey(int cx, int cz) {
+        return (long) cx << 32 | cz & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @return the shared cache, or null if Citizens is not enabled
+     */
+    public static BlockSnapshotCache getInstance() {
+        if (!CitizensAPI.hasImplementation() || !(CitizensAPI.getPlugin() instanceof Citizens))
+            return null;
+        return ((Citizens) CitizensAPI.getPlugin()).getBlockSnapshotCache();
+    }
+
+    /**
+     * @return the shared cache if block sources should use it, otherwise null
+     */
+    public static BlockSnapshotCache getIfEnabled() {
+        return Setting.NEW_PATHFINDER_BLOCK_CACHE.asBoolean() ? getInstance() : null;
+    }
+
+    private static Block getLiveBlock(Chunk chunk, int x, int y, int z) {
+        if (!Bukkit.isPrimaryThread())
+            throw new SnapshotMissException((chunk.getX() << 4) + x, y, (chunk.getZ() << 4) + z);
+        return chunk.getBlock(x, y, z);
+    }
+
+    private static int index(int x, int y, int z) {
+        return (y & 15) << 8 | z << 4 | x;
+    }
+
+    private static final Material[] MATERIALS = Material.values();
+    private static final int SHAPE_EMPTY = 1;
+    private static final int SHAPE_OFFSET = 2;
+    private static final int SHAPE_UNKNOWN = 0;
+}
@@ -0,0 +1,165 @@
+package net.citizensnpcs.npc.ai;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.block.data.Waterlogged;
+
+import com.google.common.collect.ImmutableSet;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.citizensnpcs.api.astar.pathfinder.BlockSource;
+import net.citizensnpcs.api.astar.pathfinder.MinecraftBlockExaminer;
+import net.citizensnpcs.api.util.BoundingBox;
+import net.citizensnpcs.api.util.SpigotUtil;
+import net.citizensnpcs.util.NMS;
+
+/**
+ * An immutable {@link BlockSource} backed by {@link ChunkSnapshot}s taken on the main thread, suitable for pathfinding
+ * off the main thread. Never reads the live world: {@link #getBlockAt(int, int, int)} is unsupported, and collision
+ * boxes come from a shared table of shapes per block state, filled on the main thread by
+ * {@link #recordShapes(SnapshotMissException)}. Lookups that cannot be answered from the snapshot throw a
+ * {@link SnapshotMissException} so that the caller can search synchronously instead.
+ */
+public class ChunkSnapshotBlockSource extends BlockSource {
+    private final Long2ObjectMap<ChunkSnapshot> snapshots = new Long2ObjectOpenHashMap<>();
+    private final World world;
+
+    /**
+     * Snapshots all loaded chunks in the box spanning the two locations, expanded by <code>margin</code> blocks and
+     * clamped to <code>radius</code> blocks around <code>from</code>. Must be called on the main thread.
+     */
+    public ChunkSnapshotBlockSource(Location from, Location to, float radius, int margin) {
+        world = from.getWorld();
+        int minX = Math.max(Math.min(from.getBlockX(), to.getBlockX()) - margin, (int) (from.getBlockX() - radius));
+        int maxX = Math.min(Math.max(from.getBlockX(), to.getBlockX()) + margin, (int) (from.getBlockX() + radius));
+        int minZ = Math.max(Math.min(from.getBlockZ(), to.getBlockZ()) - margin, (int) (from.getBlockZ() - radius));
+        int maxZ = Math.min(Math.max(from.getBlockZ(), to.getBlockZ()) + margin, (int) (from.getBlockZ() + radius));
+        for (int cx = minX >> 4; cx <= maxX >> 4; cx++) {
+            for (int cz = minZ >> 4; cz <= maxZ >> 4; cz++) {
+                if (!world.isChunkLoaded(cx, cz))
+                    continue;
+                snapshots.put(key(cx, cz), world.getChunkAt(cx, cz).getChunkSnapshot(false, false, false));
+            }
+        }
+    }
+
+    @Override
+    public Block getBlockAt(int x, int y, int z) {
+        throw new SnapshotMissException(x, y, z);
+    }
+
+    @Override
+    public BoundingBox getCollisionBox(int x, int y, int z) {
+        ChunkSnapshot snapshot = snapshots.get(key(x >> 4, z >> 4));
+        if (snapshot == null)
+            return null;
+        if (!SpigotUtil.checkYSafe(y, world))
+            return BoundingBox.EMPTY;
+        BoundingBox shape = SHAPES.get(snapshot.getBlockData(x & 15, y, z & 15));
+        if (shape == null)
+            throw new SnapshotMissException(x, y, z);
+        return shape == BoundingBox.EMPTY ? shape : shape.add(x, y, z);
+    }
+
+    @Override
+    public Material getMaterialAt(int x, int y, int z) {
+        ChunkSnapshot snapshot = snapshots.get(key(x >> 4, z >> 4));
+        if (snapshot == null || !SpigotUtil.checkYSafe(y, world))
+            return Material.AIR;
+        return snapshot.getBlockType(x & 15, y, z & 15);
+    }
+
+    @Override
+    public World getWorld() {
+        return world;
+    }
+
+    public boolean isEmpty() {
+        return snapshots.isEmpty();
+    }
+
+    /**
+     * @return whether the block is a liquid or waterlogged, read from the snapshot
+     */
+    public boolean isLiquidOrInLiquid(int x, int y, int z) {
+        ChunkSnapshot snapshot = snapshots.get(key(x >> 4, z >> 4));
+        if (snapshot == null || !SpigotUtil.checkYSafe(y, world))
+            return false;
+        BlockData data = snapshot.getBlockData(x & 15, y, z & 15);
+        return MinecraftBlockExaminer.isLiquid(data.getMaterial())
+                || data instanceof Waterlogged && ((Waterlogged) data).isWaterlogged();
+    }
+
+    /**
+     * Records the collision shapes of the snapshotted blocks around a failed lookup so that later searches can answer
+     * it off the main thread. Must be called on the main thread.
+     */
+    public void recordShapes(SnapshotMissException miss) {
+        for (int x = miss.x - SHAPE_RADIUS; x <= miss.x + SHAPE_RADIUS; x++) {
+            for (int z = miss.z - SHAPE_RADIUS; z <= miss.z + SHAPE_RADIUS; z++) {
+                ChunkSnapshot snapshot = snapshots.get(key(x >> 4, z >> 4));
+                if (snapshot == null)
+                    continue;
+                for (int y = miss.y - SHAPE_RADIUS; y <= miss.y + SHAPE_RADIUS; y++) {
+                    if (!SpigotUtil.checkYSafe(y, world))
+                        continue;
+                    BlockData data = snapshot.getBlockData(x & 15, y, z & 15);
+                    if (SHAPES.containsKey(data) || POSITIONAL_SHAPES.contains(data.getMaterial().name()))
+                        continue;
+                    Block block = world.getBlockAt(x, y, z);
+                    // the snapshot may be stale by now
+                    if (!block.getBlockData().equals(data))
+                        continue;
+                    BoundingBox box = NMS.getCollisionBox(block);
+                    SHAPES.put(data, box == BoundingBox.EMPTY ? box : box.add(-x, -y, -z));
+                }
+            }
+        }
+    }
+
+    /**
+     * Thrown off the main thread when a lookup would need the live world.
+     */
+    public static class SnapshotMissException extends RuntimeException {
+        private final int x, y, z;
+
+        public SnapshotMissException(int x, int y, int z) {
+            super("block at " + x + "," + y + "," + z + " is not available from the snapshot", null, false, false);
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static long key(int cx, int cz) {
+        return (long) cx << 32 | cz & 0xFFFFFFFFL;
+    }
+
+    public static boolean isSupported() {
+        return SUPPORT_BLOCK_TYPE;
+    }
+
+    // blocks offset by their position, so their shape is not a function of the block state alone
+    private static final ImmutableSet<String> POSITIONAL_SHAPES = ImmutableSet.of("BAMBOO", "POINTED_DRIPSTONE");
+    private static final int SHAPE_RADIUS = 2;
+    private static final Map<BlockData, BoundingBox> SHAPES = new ConcurrentHashMap<>();
+    private static boolean SUPPORT_BLOCK_TYPE = true;
+    static {
+        try {
+            ChunkSnapshot.class.getMethod("getBlockType", int.class, int.class, int.class);
+            ChunkSnapshot.class.getMethod("getBlockData", int.class, int.class, int.class);
+        } catch (NoSuchMethodException | SecurityException e) {
+            SUPPORT_BLOCK_TYPE = false;
+        }
+    }
+}
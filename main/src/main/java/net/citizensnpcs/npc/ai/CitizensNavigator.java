@@ -100,6 +100,7 @@ public class CitizensNavigator implements Navigator, Runnable {
             }
             AStarPlanner planner = new AStarPlanner(params, npc.getStoredLocation(), dest);
             planner.tick(Setting.MAXIMUM_ASTAR_ITERATIONS.asInt(), Setting.MAXIMUM_ASTAR_ITERATIONS.asInt());
+            planner.cancel();
             return planner.plan != null;
         } else {
             MCNavigator nav = NMS.getTargetNavigator(npc.getEntity(), dest, params);
@@ -386,7 +387,8 @@ public class CitizensNavigator implements Navigator, Runnable {
             if (npc.isFlyable()) {
                 return new FlyingAStarNavigationStrategy(npc, target, params);
             } else if (params.useNewPathfinder() || !(npc.getEntity() instanceof LivingEntity)) {
-                return new AStarNavigationStrategy(npc, target, params);
+                return FlowFieldCache.canUse(npc, params) ? new FlowFieldNavigationStrategy(npc, target, params)
+                        : new AStarNavigationStrategy(npc, target, params);
             } else {
                 return new MCNavigationStrategy(npc, target, params);
             }
@@ -420,6 +422,10 @@ public class CitizensNavigator implements Navigator, Runnable {
     private void stopNavigating(CancelReason reason) {
         if (!isNavigating())
             return;
+        PathfindingMetrics metrics = PathfindingMetrics.getIfEnabled();
+        if (metrics != null) {
+            metrics.recordEnd(executing.getClass().getSimpleName(), reason);
+        }
 
         if (reason == CancelReason.STUCK && Messaging.isDebugging()) {
             Messaging.debug(npc, "navigation ended, stuck", executing);
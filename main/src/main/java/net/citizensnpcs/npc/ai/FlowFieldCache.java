@@ -0,0 +1,376 @@
+package net.citizensnpcs.npc.ai;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.UUID;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.util.Vector;
+
+import com.google.common.collect.Lists;
+
+import net.citizensnpcs.Citizens;
+import net.citizensnpcs.Settings.Setting;
+import net.citizensnpcs.api.CitizensAPI;
+import net.citizensnpcs.api.ai.NavigatorParameters;
+import net.citizensnpcs.api.astar.pathfinder.BlockExaminer;
+import net.citizensnpcs.api.astar.pathfinder.MinecraftBlockExaminer;
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.util.Util;
+
+/**
+ * Shares flow fields between walking NPCs navigating to the same destination. A flow field holds the walking cost
+ * from every standable block around the destination to the destination, computed once by a Dijkstra search that is
+ * spread over several ticks, so that each NPC only has to step to the neighbouring block with the lowest cost instead
+ * of running its own A* search. Fields are keyed by world, destination (or target entity) and pathfinder signature.
+ * When the destination moves or a block inside a field changes the field is rebuilt in the background while NPCs keep
+ * following the previous one.
+ */
+public class FlowFieldCache extends BlockChangeListener implements Runnable {
+    private final Map<Key, Field> fields = new HashMap<>();
+
+    /**
+     * Returns the shared field for the target, creating it if necessary. Each call must be matched by a call to
+     * {@link #release(Field)}.
+     *
+     * @param target
+     *            the target entity's {@link UUID} or the destination block as a {@link Vector}
+     */
+    public Field acquire(World world, Object target, String signature, boolean avoidWater) {
+        Key key = new Key(world.getUID(), target, signature);
+        Field field = fields.get(key);
+        if (field == null) {
+            fields.put(key, field = new Field(key, world, avoidWater));
+        }
+        field.references++;
+        return field;
+    }
+
+    @Override
+    protected void blockChanged(Block block) {
+        for (Field field : fields.values()) {
+            if (field.contains(block)) {
+                field.dirty = true;
+            }
+        }
+    }
+
+    public void release(Field field) {
+        if (--field.references <= 0 && fields.get(field.key) == field) {
+            fields.remove(field.key);
+        }
+    }
+
+    @Override
+    public void run() {
+        int budget = Setting.NEW_PATHFINDER_FLOW_FIELD_EXPANSIONS_PER_TICK.asInt();
+        for (Field field : fields.values()) {
+            if (budget <= 0)
+                break;
+            budget -= field.tick(budget);
+        }
+    }
+
+    @Override
+    protected void worldUnloaded(World world) {
+        for (Iterator<Key> itr = fields.keySet().iterator(); itr.hasNext();) {
+            if (itr.next().world.equals(world.getUID())) {
+                itr.remove();
+            }
+        }
+    }
+
+    private static class Build {
+        private final int[] costs;
+        private final PriorityQueue<Long> open = new PriorityQueue<>();
+        private final int originX, originY, originZ;
+        private final int radius;
+        private final byte[] standable;
+
+        private Build(Location goal, int radius) {
+            this.radius = radius;
+            originX = goal.getBlockX();
+            originY = goal.getBlockY();
+            originZ = goal.getBlockZ();
+            int size = (2 * radius + 1) * (2 * radius + 1) * (2 * HEIGHT + 1);
+            costs = new int[size];
+            standable = new byte[size];
+            Arrays.fill(costs, Integer.MAX_VALUE);
+            int index = index(radius, originX, originY, originZ, originX, originY, originZ);
+            costs[index] = 0;
+            open.add((long) index);
+        }
+
+        private boolean isStandable(World world, int index, int x, int y, int z) {
+            if (standable[index] == 0) {
+                standable[index] = Util.isStandable(world, x, y, z) ? STANDABLE : NOT_STANDABLE;
+            }
+            return standable[index] == STANDABLE;
+        }
+
+        /**
+         * Expands up to the given number of blocks.
+         *
+         * @return the number of blocks expanded
+         */
+        private int run(World world, boolean avoidWater, int budget) {
+            int used = 0;
+            int width = 2 * radius + 1;
+            while (used < budget && !open.isEmpty()) {
+                long next = open.poll();
+                int index = (int) next;
+                int cost = (int) (next >>> 32);
+                if (cost > costs[index])
+                    continue;
+                used++;
+                int x = originX + index / (width * (2 * HEIGHT + 1)) - radius;
+                int y = originY + index / width % (2 * HEIGHT + 1) - HEIGHT;
+                int z = originZ + index % width - radius;
+                // neighbours walk into this block, so its own liquid decides the extra cost
+                int step = avoidWater && MinecraftBlockExaminer.isLiquidOrInLiquid(world.getBlockAt(x, y, z))
+                        ? WATER_COST
+                        : 0;
+                for (int[] move : MOVES) {
+                    int nx = x + move[0], ny = y + move[1], nz = z + move[2];
+                    int neighbour = index(radius, originX, originY, originZ, nx, ny, nz);
+                    if (neighbour == -1 || !isStandable(world, neighbour, nx, ny, nz))
+                        continue;
+                    if (move[0] != 0 && move[2] != 0 && !(isStandable(world, x + move[0], y, z)
+                            && isStandable(world, x, y, z + move[2])))
+                        continue;
+                    int total = cost + move[3] + step;
+                    if (total < costs[neighbour]) {
+                        costs[neighbour] = total;
+                        open.add((long) total << 32 | neighbour);
+                    }
+                }
+            }
+            return used;
+        }
+
+        private boolean isStandable(World world, int x, int y, int z) {
+            int index = index(radius, originX, originY, originZ, x, y, z);
+            return index != -1 && isStandable(world, index, x, y, z);
+        }
+    }
+
+    public static class Field {
+        private final boolean avoidWater;
+        private Build build;
+        private int[] costs;
+        private boolean dirty;
+        private Location goal;
+        private final Key key;
+        private int radius;
+        private int references;
+        private Location requested;
+        private final World world;
+
+        private Field(Key key, World world, boolean avoidWater) {
+            this.key = key;
+            this.world = world;
+            this.avoidWater = avoidWater;
+        }
+
+        private boolean contains(Block block) {
+            if (block.getWorld() != world)
+                return false;
+            if (build != null && contains(block, build.originX, build.originY, build.originZ, build.radius))
+                return true;
+            return goal != null && contains(block, goal.getBlockX(), goal.getBlockY(), goal.getBlockZ(), radius);
+        }
+
+        private boolean contains(Block block, int x, int y, int z, int radius) {
+            // a change next to a block can make it standable or not
+            return Math.abs(block.getX() - x) <= radius + 1 && Math.abs(block.getY() - y) <= HEIGHT + 2
+                    && Math.abs(block.getZ() - z) <= radius + 1;
+        }
+
+        /**
+         * @return the walking cost from the block to the field's goal, or {@link Integer#MAX_VALUE} if it is not
+         *         known to be reachable
+         */
+        public int getCost(int x, int y, int z) {
+            if (costs == null)
+                return Integer.MAX_VALUE;
+            int index = index(radius, goal.getBlockX(), goal.getBlockY(), goal.getBlockZ(), x, y, z);
+            return index == -1 ? Integer.MAX_VALUE : costs[index];
+        }
+
+        /**
+         * @return the block the entity is standing in according to the field, or null if it is not in the field
+         */
+        public Vector getCurrentBlock(Location loc) {
+            Vector best = null;
+            int bestCost = Integer.MAX_VALUE;
+            // entities standing on slabs or stairs may be partly inside the block below
+            for (int dy : new int[] { 0, 1, -1 }) {
+                int cost = getCost(loc.getBlockX(), loc.getBlockY() + dy, loc.getBlockZ());
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    best = new Vector(loc.getBlockX(), loc.getBlockY() + dy, loc.getBlockZ());
+                }
+            }
+            return best;
+        }
+
+        /**
+         * @return the goal block of the completed field, or null if no field has been completed
+         */
+        public Location getGoal() {
+            return goal;
+        }
+
+        /**
+         * @return the neighbouring block with the lowest cost, or null if none is closer to the goal
+         */
+        public Vector getNext(Vector block) {
+            int x = block.getBlockX(), y = block.getBlockY(), z = block.getBlockZ();
+            int best = getCost(x, y, z);
+            Vector next = null;
+            for (int[] move : MOVES) {
+                int nx = x + move[0], ny = y + move[1], nz = z + move[2];
+                int cost = getCost(nx, ny, nz);
+                if (cost >= best)
+                    continue;
+                if (move[0] != 0 && move[2] != 0 && (getCost(x + move[0], y, z) == Integer.MAX_VALUE
+                        || getCost(x, y, z + move[2]) == Integer.MAX_VALUE))
+                    continue;
+                best = cost;
+                next = new Vector(nx, ny, nz);
+            }
+            return next;
+        }
+
+        /**
+         * @return the blocks an NPC would walk through from the given block, up to the given length
+         */
+        public List<Vector> getPath(Vector from, int maxLength) {
+            List<Vector> path = Lists.newArrayList();
+            Vector block = from;
+            while (path.size() < maxLength && (block = getNext(block)) != null) {
+                path.add(block);
+            }
+            return path;
+        }
+
+        public boolean isReady() {
+            return costs != null;
+        }
+
+        /**
+         * Requests the field to be built towards the given goal. The current field is kept until the new one is
+         * complete.
+         */
+        public void setGoal(Location goal) {
+            if (requested != null && requested.getBlockX() == goal.getBlockX()
+                    && requested.getBlockY() == goal.getBlockY() && requested.getBlockZ() == goal.getBlockZ())
+                return;
+            requested = goal.getBlock().getLocation();
+        }
+
+        private int tick(int budget) {
+            if (build == null) {
+                if (requested == null || !dirty && requested.equals(goal)
+                        || references < Setting.NEW_PATHFINDER_FLOW_FIELD_MIN_NPCS.asInt())
+                    return 0;
+                // a moving goal restarts the build only once the previous one completes
+                build = new Build(requested, Setting.NEW_PATHFINDER_FLOW_FIELD_RADIUS.asInt());
+                dirty = false;
+            }
+            int used = build.run(world, avoidWater, budget);
+            if (build.open.isEmpty()) {
+                costs = build.costs;
+                radius = build.radius;
+                goal = new Location(world, build.originX, build.originY, build.originZ);
+                build = null;
+            }
+            return used;
+        }
+    }
+
+    private static class Key {
+        private final String signature;
+        private final Object target;
+        private final UUID world;
+
+        private Key(UUID world, Object target, String signature) {
+            this.world = world;
+            this.target = target;
+            this.signature = signature;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null || getClass() != obj.getClass())
+                return false;
+            Key other = (Key) obj;
+            return world.equals(other.world) && target.equals(other.target) && signature.equals(other.signature);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(world, target, signature);
+        }
+    }
+
+    /**
+     * @return whether the NPC can follow a shared flow field with the given parameters instead of searching itself
+     */
+    public static boolean canUse(NPC npc, NavigatorParameters params) {
+        if (!Setting.NEW_PATHFINDER_FLOW_FIELD.asBoolean() || getInstance() == null || npc.isFlyable())
+            return false;
+        // fields only know about standable blocks, so other examiners would be ignored
+        for (BlockExaminer examiner : params.examiners()) {
+            if (!(examiner instanceof MinecraftBlockExaminer)
+                    && !(examiner instanceof AStarNavigationStrategy.AvoidWaterExaminer))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the shared cache, or null if Citizens is not enabled
+     */
+    public static FlowFieldCache getInstance() {
+        if (!CitizensAPI.hasImplementation() || !(CitizensAPI.getPlugin() instanceof Citizens))
+            return null;
+        return ((Citizens) CitizensAPI.getPlugin()).getFlowFieldCache();
+    }
+
+    private static int index(int radius, int originX, int originY, int originZ, int x, int y, int z) {
+        int dx = x - originX + radius, dy = y - originY + HEIGHT, dz = z - originZ + radius;
+        int width = 2 * radius + 1;
+        if (dx < 0 || dx >= width || dy < 0 || dy > 2 * HEIGHT || dz < 0 || dz >= width)
+            return -1;
+        return (dx * (2 * HEIGHT + 1) + dy) * width + dz;
+    }
+
+    private static final int HEIGHT = 16;
+    private static final int[][] MOVES = new int[24][];
+    private static final byte NOT_STANDABLE = 2;
+    private static final byte STANDABLE = 1;
+    private static final int WATER_COST = 20;
+
+    static {
+        int i = 0;
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dz = -1; dz <= 1; dz++) {
+                if (dx == 0 && dz == 0)
+                    continue;
+                for (int dy = -1; dy <= 1; dy++) {
+                    MOVES[i++] = new int[] { dx, dy, dz, dx != 0 && dz != 0 ? 14 : 10 };
+                }
+            }
+        }
+    }
+}
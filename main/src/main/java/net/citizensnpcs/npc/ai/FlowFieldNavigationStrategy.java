@@ -0,0 +1,158 @@
+package net.citizensnpcs.npc.ai;
+
+import org.bukkit.Effect;
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.util.Vector;
+
+import net.citizensnpcs.api.ai.AbstractPathStrategy;
+import net.citizensnpcs.api.ai.NavigatorParameters;
+import net.citizensnpcs.api.ai.TargetType;
+import net.citizensnpcs.api.astar.pathfinder.MinecraftBlockExaminer;
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.util.NMS;
+import net.citizensnpcs.util.Util;
+
+/**
+ * Walks down the gradient of a flow field shared with other NPCs navigating to the same destination (see
+ * {@link FlowFieldCache}). Falls back to an {@link AStarNavigationStrategy} while the field is not ready or does not
+ * reach the NPC.
+ */
+public class FlowFieldNavigationStrategy extends AbstractPathStrategy {
+    private AStarNavigationStrategy delegate;
+    private Location destination;
+    private FlowFieldCache.Field field;
+    private Vector next;
+    private final NPC npc;
+    private final NavigatorParameters params;
+
+    /**
+     * Follows the field shared by NPCs targeting the given entity. The destination should be updated through
+     * {@link #setDestination(Location)} as the entity moves.
+     */
+    public FlowFieldNavigationStrategy(NPC npc, Entity target, Location dest, NavigatorParameters params) {
+        super(TargetType.LOCATION);
+        this.npc = npc;
+        this.params = params;
+        FlowFieldCache cache = FlowFieldCache.getInstance();
+        if (cache != null) {
+            Object key = target != null ? target.getUniqueId()
+                    : new Vector(dest.getBlockX(), dest.getBlockY(), dest.getBlockZ());
+            field = cache.acquire(dest.getWorld(), key, PathCache.signature(npc, params), params.avoidWater());
+        }
+        setDestination(dest);
+    }
+
+    public FlowFieldNavigationStrategy(NPC npc, Location dest, NavigatorParameters params) {
+        this(npc, null, dest, params);
+    }
+
+    @Override
+    public Location getCurrentDestination() {
+        if (delegate != null)
+            return delegate.getCurrentDestination();
+        return next != null ? next.toLocation(destination.getWorld()) : destination.clone();
+    }
+
+    @Override
+    public Iterable<Vector> getPath() {
+        if (delegate != null)
+            return delegate.getPath();
+        if (field == null || !field.isReady() || !npc.isSpawned())
+            return null;
+        Vector block = field.getCurrentBlock(npc.getEntity().getLocation());
+        return block == null ? null : field.getPath(block, MAX_PATH_LENGTH);
+    }
+
+    @Override
+    public Location getTargetAsLocation() {
+        return destination;
+    }
+
+    /**
+     * Moves the destination, rebuilding the shared field towards it in the background.
+     */
+    public void setDestination(Location dest) {
+        destination = dest;
+        if (field != null) {
+            field.setGoal(dest);
+        }
+        if (delegate != null) {
+            delegate.stop();
+            delegate = null;
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (delegate != null) {
+            delegate.stop();
+            delegate = null;
+        }
+        if (field != null) {
+            FlowFieldCache cache = FlowFieldCache.getInstance();
+            if (cache != null) {
+                cache.release(field);
+            }
+            field = null;
+        }
+    }
+
+    @Override
+    public boolean update() {
+        if (getCancelReason() != null)
+            return true;
+        Location loc = npc.getEntity().getLocation();
+        if (loc.getWorld() != destination.getWorld())
+            return true;
+        if (loc.distance(destination) <= params.distanceMargin())
+            return true;
+        next = null;
+        Vector block = field == null ? null : field.getCurrentBlock(loc);
+        if (block != null) {
+            next = field.getNext(block);
+            if (next == null && field.getCost(block.getBlockX(), block.getBlockY(), block.getBlockZ()) == 0) {
+                // at the goal of the field, which may lag behind a moving destination
+                next = destination.toVector();
+            }
+        }
+        if (next == null) {
+            if (delegate == null) {
+                delegate = new AStarNavigationStrategy(npc, destination, params);
+            }
+            boolean done = delegate.update();
+            if (delegate.getCancelReason() != null) {
+                setCancelReason(delegate.getCancelReason());
+            }
+            return done;
+        }
+        if (delegate != null) {
+            delegate.stop();
+            delegate = null;
+        }
+        Location dest = Util.getCenterLocation(next.toLocation(loc.getWorld()).getBlock());
+        double dX = dest.getX() - loc.getX();
+        double dZ = dest.getZ() - loc.getZ();
+        double dY = dest.getY() - loc.getY();
+        double xzDistance = Math.sqrt(dX * dX + dZ * dZ);
+        if (params.debug()) {
+            npc.getEntity().getWorld().playEffect(dest, Effect.ENDER_SIGNAL, 0);
+        }
+        if (npc.getEntity() instanceof LivingEntity && npc.getEntity().getType() != EntityType.ARMOR_STAND) {
+            NMS.setDestination(npc.getEntity(), dest.getX(), dest.getY(), dest.getZ(), params.speed());
+        } else {
+            Vector dir = dest.toVector().subtract(loc.toVector()).normalize().multiply(0.2);
+            boolean liquidOrInLiquid = MinecraftBlockExaminer.isLiquidOrInLiquid(loc.getBlock());
+            if (dY >= 1 && xzDistance <= 0.4 || dY >= 0.2 && liquidOrInLiquid) {
+                dir.add(new Vector(0, 0.75, 0));
+            }
+            npc.getEntity().setVelocity(dir);
+            Util.faceLocation(npc.getEntity(), dest);
+        }
+        return false;
+    }
+
+    private static final int MAX_PATH_LENGTH = 64;
+}
@@ -11,6 +11,7 @@ import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.util.Vector;
 
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 
 import net.citizensnpcs.Settings.Setting;
@@ -31,11 +32,14 @@ import net.citizensnpcs.util.PlayerAnimation;
 import net.citizensnpcs.util.Util;
 
 public class FlyingAStarNavigationStrategy extends AbstractPathStrategy {
+    private String cacheSignature;
     private int iterations;
+    private long nanos;
     private final NPC npc;
     private final NavigatorParameters parameters;
     private Path plan;
     private boolean planned;
+    private Location start;
     private AStarMachine<VectorNode, Path>.AStarState state;
     private final Location target;
     private Vector vector;
@@ -83,6 +87,20 @@ public class FlyingAStarNavigationStrategy extends AbstractPathStrategy {
             parameters.examiner(new FlyingBlockExaminer());
         }
         Location location = npc.getEntity().getLocation();
+        PathCache cache = PathCache.getIfEnabled();
+        if (cache != null) {
+            cacheSignature = PathCache.signature(npc, parameters);
+            List<Vector> cached = cache.get(location, target, cacheSignature);
+            if (cached != null) {
+                setPlan(new Path(cached));
+                PathfindingMetrics metrics = PathfindingMetrics.getIfEnabled();
+                if (metrics != null) {
+                    metrics.recordCacheHit(getClass().getSimpleName());
+                }
+                return;
+            }
+        }
+        start = location;
         VectorGoal goal = new VectorGoal(target, (float) parameters.pathDistanceMargin());
         state = ASTAR.getStateFor(goal, new VectorNode(goal, location,
                 new NMSChunkBlockSource(location, parameters.range()), parameters.examiners()));
@@ -112,13 +130,15 @@ public class FlyingAStarNavigationStrategy extends AbstractPathStrategy {
 
     @Override
     public boolean update() {
+        if (!planned && state == null) {
+            initialisePathfinder();
+        }
         if (!planned) {
-            if (state == null) {
-                initialisePathfinder();
-            }
             int maxIterations = Setting.MAXIMUM_ASTAR_ITERATIONS.asInt();
             int iterationsPerTick = Setting.ASTAR_ITERATIONS_PER_TICK.asInt();
+            long startNanos = System.nanoTime();
             Path plan = ASTAR.run(state, iterationsPerTick);
+            nanos += System.nanoTime() - startNanos;
             if (plan == null) {
                 if (state.isEmpty()) {
                     setCancelReason(CancelReason.STUCK);
@@ -131,6 +151,15 @@ public class FlyingAStarNavigationStrategy extends AbstractPathStrategy {
                 }
             } else {
                 setPlan(plan);
+                PathCache cache = PathCache.getIfEnabled();
+                if (cache != null && cacheSignature != null) {
+                    cache.put(start, target, cacheSignature, plan.getPath());
+                }
+            }
+            PathfindingMetrics metrics = PathfindingMetrics.getIfEnabled();
+            if (metrics != null && (plan != null || getCancelReason() != null)) {
+                metrics.recordSearch(npc, getClass().getSimpleName(), start, target, nanos, -1,
+                        plan == null ? -1 : Iterables.size(plan.getPath()));
             }
         }
         if (getCancelReason() != null || plan == null || plan.isComplete())
@@ -6,6 +6,7 @@ import org.bukkit.Location;
 import org.bukkit.entity.Entity;
 import org.bukkit.util.Vector;
 
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 
 import net.citizensnpcs.api.ai.AbstractPathStrategy;
@@ -40,7 +41,15 @@ public class MCNavigationStrategy extends AbstractPathStrategy {
         target = Util.getCenterLocation(dest.getBlock());
         parameters = params;
         entity = npc.getEntity();
+        long start = System.nanoTime();
         navigator = NMS.getTargetNavigator(entity, target, params);
+        PathfindingMetrics metrics = PathfindingMetrics.getIfEnabled();
+        if (metrics != null) {
+            // the vanilla pathfinder does not report how many blocks it expanded
+            Iterable<Vector> path = navigator.getPath();
+            metrics.recordSearch(npc, getClass().getSimpleName(), entity.getLocation(), target,
+                    System.nanoTime() - start, -1, path == null ? -1 : Iterables.size(path));
+        }
     }
 
     @Override
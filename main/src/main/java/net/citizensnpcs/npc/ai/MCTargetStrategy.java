@@ -1,12 +1,18 @@
 package net.citizensnpcs.npc.ai;
 
+import java.util.List;
+
 import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.LivingEntity;
 import org.bukkit.util.Vector;
 
+import com.google.common.collect.Lists;
+
+import net.citizensnpcs.Settings.Setting;
 import net.citizensnpcs.api.ai.AttackStrategy;
 import net.citizensnpcs.api.ai.EntityTarget;
 import net.citizensnpcs.api.ai.NavigatorParameters;
@@ -16,7 +22,9 @@ import net.citizensnpcs.api.ai.event.CancelReason;
 import net.citizensnpcs.api.astar.pathfinder.MinecraftBlockExaminer;
 import net.citizensnpcs.api.npc.NPC;
 import net.citizensnpcs.api.util.BoundingBox;
+import net.citizensnpcs.npc.ai.AStarNavigationStrategy.AStarPlanner;
 import net.citizensnpcs.util.NMS;
+import net.citizensnpcs.util.Util;
 
 public class MCTargetStrategy implements PathStrategy, EntityTarget {
     private final boolean aggro;
@@ -25,6 +33,7 @@ public class MCTargetStrategy implements PathStrategy, EntityTarget {
     private final Entity handle;
     private final NPC npc;
     private final NavigatorParameters parameters;
+    private PathfindingScheduler.Job repath;
     private final Entity target;
     private TargetNavigator targetNavigator;
     private int updateCounter = -1;
@@ -91,6 +100,10 @@ public class MCTargetStrategy implements PathStrategy, EntityTarget {
 
     @Override
     public void stop() {
+        if (repath != null) {
+            repath.cancel();
+            repath = null;
+        }
         targetNavigator.stop();
     }
 
@@ -118,9 +131,20 @@ public class MCTargetStrategy implements PathStrategy, EntityTarget {
         if (!aggro && distance() <= parameters.distanceMargin()) {
             stop();
             return false;
-        } else if (updateCounter == -1 || updateCounter++ > parameters.updatePathRate()) {
+        } else if (updateCounter == -1) {
             targetNavigator.setPath();
             updateCounter = 0;
+        } else if (repath == null && updateCounter++ > parameters.updatePathRate()) {
+            PathfindingScheduler scheduler = PathfindingScheduler.getIfEnabled();
+            if (scheduler != null) {
+                repath = scheduler.submit(npc, targetNavigator::setPath, Setting.MAXIMUM_VISITED_NODES.asInt());
+            } else {
+                targetNavigator.setPath();
+            }
+            updateCounter = 0;
+        }
+        if (repath != null && repath.isDone()) {
+            repath = null;
         }
         targetNavigator.update();
 
@@ -141,8 +165,44 @@ public class MCTargetStrategy implements PathStrategy, EntityTarget {
 
     private class AStarTargeter implements TargetNavigator {
         private int failureTimes = 0;
+        private Location goal;
+        private PathfindingScheduler.Job joinJob;
+        private AStarPlanner joinPlanner;
+        private List<Vector> joinPrefix;
+        private Location joinTarget;
+        private Location planned;
         private PathStrategy strategy;
 
+        private void cancelJoin() {
+            if (joinJob != null) {
+                joinJob.cancel();
+                joinJob = null;
+            }
+            if (joinPlanner != null) {
+                joinPlanner.cancel();
+                joinPlanner = null;
+            }
+            joinPrefix = null;
+        }
+
+        /**
+         * @return the part of the path from the point nearest the NPC onwards
+         */
+        private List<Vector> cutAtNearest(Iterable<Vector> path) {
+            Vector position = handle.getLocation().toVector();
+            List<Vector> remaining = Lists.newArrayList();
+            double nearest = Double.MAX_VALUE;
+            for (Vector point : path) {
+                double distance = point.distanceSquared(position);
+                if (distance < nearest) {
+                    nearest = distance;
+                    remaining.clear();
+                }
+                remaining.add(point);
+            }
+            return remaining;
+        }
+
         @Override
         public Location getCurrentDestination() {
             if (strategy == null)
@@ -155,6 +215,78 @@ public class MCTargetStrategy implements PathStrategy, EntityTarget {
             return strategy.getPath();
         }
 
+        /**
+         * Repairs the current path to end at the moved target instead of searching from scratch: the path is cut at
+         * the point nearest the target and a short search joins it to the target. Repairs stop once the target has
+         * drifted too far from where the last full search was aimed.
+         *
+         * @return whether the path was repaired or a repair is still in progress
+         */
+        private boolean repair(Location location) {
+            double maxDistance = Setting.NEW_PATHFINDER_REPAIR_DISTANCE.asDouble();
+            if (!(strategy instanceof AStarNavigationStrategy) || strategy.getCancelReason() != null || planned == null
+                    || planned.getWorld() != location.getWorld()
+                    || planned.distanceSquared(location) > maxDistance * maxDistance) {
+                cancelJoin();
+                return false;
+            }
+            int iterations = Setting.NEW_PATHFINDER_REPAIR_MAX_ITERATIONS.asInt();
+            if (joinJob != null) {
+                // keep following the current path while the join is searched from the shared budget
+                if (!joinJob.isDone() && joinPlanner.iterations <= iterations)
+                    return true;
+                boolean joined = joinJob.isDone() && joinJob.getCancelReason() == null && joinPlanner.plan != null;
+                Iterable<Vector> join = joined ? joinPlanner.plan.getPath() : null;
+                List<Vector> prefix = joinPrefix;
+                Location target = joinTarget;
+                cancelJoin();
+                return joined && splice(cutAtNearest(prefix), join, target);
+            }
+            Iterable<Vector> path = strategy.getPath();
+            if (path == null)
+                return false;
+            World world = location.getWorld();
+            List<Vector> remaining = cutAtNearest(path);
+            if (remaining.isEmpty())
+                return false;
+            int end = 0;
+            double nearest = Double.MAX_VALUE;
+            for (int i = 0; i < remaining.size(); i++) {
+                Vector point = remaining.get(i);
+                // the blocks may have changed since the path was planned
+                if (!Util.isStandable(world, point.getBlockX(), point.getBlockY(), point.getBlockZ()))
+                    return false;
+                double distance = point.distanceSquared(location.toVector());
+                if (distance < nearest) {
+                    nearest = distance;
+                    end = i;
+                }
+            }
+            if (goal.getBlockX() == location.getBlockX() && goal.getBlockY() == location.getBlockY()
+                    && goal.getBlockZ() == location.getBlockZ())
+                return true;
+            remaining = Lists.newArrayList(remaining.subList(0, end + 1));
+            Vector last = remaining.get(end);
+            if (last.getBlockX() == location.getBlockX() && last.getBlockY() == location.getBlockY()
+                    && last.getBlockZ() == location.getBlockZ())
+                return splice(remaining, null, location);
+            AStarPlanner planner = new AStarPlanner(parameters, last.toLocation(world), location);
+            PathfindingScheduler scheduler = PathfindingScheduler.getIfEnabled();
+            if (scheduler != null) {
+                joinPlanner = planner;
+                joinPrefix = remaining;
+                joinTarget = location;
+                joinJob = scheduler.submit(npc, planner);
+                return true;
+            }
+            planner.tick(iterations, iterations);
+            if (planner.plan == null) {
+                planner.cancel();
+                return false;
+            }
+            return splice(remaining, planner.plan.getPath(), location);
+        }
+
         @Override
         public void setPath() {
             // TODO: should use fallback-style pathfinding
@@ -186,15 +318,54 @@ public class MCTargetStrategy implements PathStrategy, EntityTarget {
                 }
                 location = block.getLocation();
             }
+            if (strategy instanceof FlowFieldNavigationStrategy && strategy.getCancelReason() == null) {
+                // the shared field follows the target, so only its destination needs to move
+                ((FlowFieldNavigationStrategy) strategy).setDestination(location);
+                return;
+            }
+            if (repair(location))
+                return;
             if (strategy != null) {
                 strategy.stop();
             }
-            strategy = npc.isFlyable() ? new FlyingAStarNavigationStrategy(npc, location, parameters)
-                    : new AStarNavigationStrategy(npc, location, parameters);
+            planned = location;
+            goal = location;
+            if (npc.isFlyable()) {
+                strategy = new FlyingAStarNavigationStrategy(npc, location, parameters);
+            } else if (FlowFieldCache.canUse(npc, parameters)) {
+                strategy = new FlowFieldNavigationStrategy(npc, target, location, parameters);
+            } else {
+                strategy = new AStarNavigationStrategy(npc, location, parameters);
+            }
+        }
+
+        /**
+         * Replaces the current path with the prefix followed by the join, unless the result wanders so far from the
+         * straight line to the target that a fresh search would be better.
+         */
+        private boolean splice(List<Vector> prefix, Iterable<Vector> join, Location location) {
+            if (prefix.isEmpty())
+                return false;
+            List<Vector> path = Lists.newArrayList(prefix);
+            if (join != null) {
+                for (Vector point : join) {
+                    if (!point.equals(path.get(path.size() - 1))) {
+                        path.add(point);
+                    }
+                }
+            }
+            double straight = handle.getLocation().distance(location);
+            if (path.size() > straight * MAX_REPAIR_DETOUR + Setting.NEW_PATHFINDER_REPAIR_DISTANCE.asDouble())
+                return false;
+            strategy.stop();
+            strategy = new AStarNavigationStrategy(npc, path, parameters);
+            goal = location;
+            return true;
         }
 
         @Override
         public void stop() {
+            cancelJoin();
             if (strategy != null) {
                 strategy.stop();
             }
@@ -268,4 +439,7 @@ public class MCTargetStrategy implements PathStrategy, EntityTarget {
 
         void update();
     }
+
+    // how many path points per block of straight-line distance a repaired path may use
+    private static final double MAX_REPAIR_DETOUR = 2;
 }
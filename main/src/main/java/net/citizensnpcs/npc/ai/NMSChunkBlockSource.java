@@ -2,18 +2,33 @@ package net.citizensnpcs.npc.ai;
 
 import org.bukkit.Chunk;
 import org.bukkit.Location;
+import org.bukkit.Material;
 
 import net.citizensnpcs.api.astar.pathfinder.ChunkBlockSource;
 import net.citizensnpcs.api.util.BoundingBox;
 import net.citizensnpcs.util.NMS;
 
 public class NMSChunkBlockSource extends ChunkBlockSource {
+    private final BlockSnapshotCache cache;
+    private final BlockSnapshotCache.WorldCache worldCache;
+
     public NMSChunkBlockSource(Location location, float radius) {
         super(location, radius);
+        cache = BlockSnapshotCache.getIfEnabled();
+        worldCache = cache != null ? cache.getWorldCache(location.getWorld()) : null;
     }
 
     @Override
     protected BoundingBox getCollisionBox(Chunk chunk, int x, int y, int z) {
+        if (worldCache != null)
+            return cache.getCollisionBox(worldCache, chunk, x, y, z);
         return NMS.getCollisionBox(chunk.getBlock(x, y, z));
     }
+
+    @Override
+    protected Material getType(Chunk chunk, int x, int y, int z) {
+        if (worldCache != null)
+            return cache.getType(worldCache, chunk, x, y, z);
+        return super.getType(chunk, x, y, z);
+    }
 }
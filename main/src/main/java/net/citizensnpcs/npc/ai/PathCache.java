@@ -0,0 +1,211 @@
+package net.citizensnpcs.npc.ai;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.util.Vector;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.SetMultimap;
+
+import net.citizensnpcs.Citizens;
+import net.citizensnpcs.Settings.Setting;
+import net.citizensnpcs.api.CitizensAPI;
+import net.citizensnpcs.api.ai.NavigatorParameters;
+import net.citizensnpcs.api.astar.pathfinder.BlockExaminer;
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.util.ChunkCoord;
+
+/**
+ * A server-wide LRU cache of computed paths, shared between NPCs. Paths are keyed by world, block start, block goal
+ * and a signature of the pathfinder settings, and are invalidated when blocks change in any chunk they pass through.
+ */
+public class PathCache extends BlockChangeListener {
+    private final SetMultimap<ChunkCoord, PathKey> byChunk = HashMultimap.create();
+    private final Map<PathKey, CachedPath> paths = new LinkedHashMap<>(64, 0.75F, true);
+    private int totalPoints;
+
+    public synchronized void clear() {
+        paths.clear();
+        byChunk.clear();
+        totalPoints = 0;
+    }
+
+    /**
+     * @return a fresh copy of the cached path, or null if no valid path is cached
+     */
+    public synchronized List<Vector> get(Location from, Location to, String signature) {
+        CachedPath cached = paths.get(new PathKey(from, to, signature));
+        if (cached == null)
+            return null;
+        List<Vector> copy = new ArrayList<>(cached.points.size());
+        for (Vector point : cached.points) {
+            copy.add(point.clone());
+        }
+        return copy;
+    }
+
+    public synchronized void invalidate(Block block) {
+        invalidate(new ChunkCoord(block.getWorld().getUID(), block.getX() >> 4, block.getZ() >> 4));
+    }
+
+    private void invalidate(ChunkCoord coord) {
+        Set<PathKey> keys = byChunk.removeAll(coord);
+        for (PathKey key : keys) {
+            remove(key);
+        }
+    }
+
+    @Override
+    protected void blockChanged(Block block) {
+        invalidate(block);
+    }
+
+    public synchronized void put(Location from, Location to, String signature, Iterable<Vector> path) {
+        List<Vector> points = new ArrayList<>();
+        for (Vector point : path) {
+            points.add(point.clone());
+        }
+        int maxPoints = Setting.PATH_CACHE_MAX_POINTS.asInt();
+        if (points.isEmpty() || points.size() > maxPoints)
+            return;
+        PathKey key = new PathKey(from, to, signature);
+        remove(key);
+        CachedPath cached = new CachedPath(points);
+        for (Vector point : points) {
+            ChunkCoord coord = new ChunkCoord(key.world, point.getBlockX() >> 4, point.getBlockZ() >> 4);
+            if (cached.chunks.add(coord)) {
+                byChunk.put(coord, key);
+            }
+        }
+        paths.put(key, cached);
+        totalPoints += points.size();
+        int maxPaths = Setting.PATH_CACHE_MAX_PATHS.asInt();
+        Iterator<Map.Entry<PathKey, CachedPath>> itr = paths.entrySet().iterator();
+        while ((paths.size() > maxPaths || totalPoints > maxPoints) && itr.hasNext()) {
+            Map.Entry<PathKey, CachedPath> eldest = itr.next();
+            itr.remove();
+            unindex(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    public synchronized void remove(Location from, Location to, String signature) {
+        remove(new PathKey(from, to, signature));
+    }
+
+    private void remove(PathKey key) {
+        CachedPath removed = paths.remove(key);
+        if (removed != null) {
+            unindex(key, removed);
+        }
+    }
+
+    public synchronized int size() {
+        return paths.size();
+    }
+
+    @Override
+    protected synchronized void worldUnloaded(World unloaded) {
+        UUID world = unloaded.getUID();
+        for (Iterator<Map.Entry<PathKey, CachedPath>> itr = paths.entrySet().iterator(); itr.hasNext();) {
+            Map.Entry<PathKey, CachedPath> entry = itr.next();
+            if (!entry.getKey().world.equals(world))
+                continue;
+            itr.remove();
+            unindex(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void unindex(PathKey key, CachedPath removed) {
+        totalPoints -= removed.points.size();
+        for (ChunkCoord coord : removed.chunks) {
+            byChunk.remove(coord, key);
+        }
+    }
+
+    private static class CachedPath {
+        private final Set<ChunkCoord> chunks = new HashSet<>();
+        private final List<Vector> points;
+
+        public CachedPath(List<Vector> points) {
+            this.points = points;
+        }
+    }
+
+    private static class PathKey {
+        private final String signature;
+        private final UUID world;
+        private final int x, y, z, tx, ty, tz;
+
+        public PathKey(Location from, Location to, String signature) {
+            this.world = from.getWorld().getUID();
+            this.x = from.getBlockX();
+            this.y = from.getBlockY();
+            this.z = from.getBlockZ();
+            this.tx = to.getBlockX();
+            this.ty = to.getBlockY();
+            this.tz = to.getBlockZ();
+            this.signature = signature;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null || getClass() != obj.getClass())
+                return false;
+            PathKey other = (PathKey) obj;
+            return x == other.x && y == other.y && z == other.z && tx == other.tx && ty == other.ty
+                    && tz == other.tz && world.equals(other.world) && signature.equals(other.signature);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(world, x, y, z, tx, ty, tz, signature);
+        }
+    }
+
+    /**
+     * @return the shared cache, or null if Citizens is not enabled
+     */
+    public static PathCache getInstance() {
+        if (!CitizensAPI.hasImplementation() || !(CitizensAPI.getPlugin() instanceof Citizens))
+            return null;
+        return ((Citizens) CitizensAPI.getPlugin()).getPathCache();
+    }
+
+    /**
+     * @return the shared cache if path strategies should use it, otherwise null
+     */
+    public static PathCache getIfEnabled() {
+        return Setting.PATH_CACHE_ENABLED.asBoolean() ? getInstance() : null;
+    }
+
+    /**
+     * Computes a signature for the pathfinder settings that affect the resulting path, so that only NPCs that would
+     * find the same path share cache entries.
+     */
+    public static String signature(NPC npc, NavigatorParameters params) {
+        Set<String> examiners = new TreeSet<>();
+        for (BlockExaminer examiner : params.examiners()) {
+            // added per planner and already captured by avoidWater()
+            if (examiner instanceof AStarNavigationStrategy.AvoidWaterExaminer)
+                continue;
+            examiners.add(examiner.getClass().getName());
+        }
+        return (npc.isSpawned() ? npc.getEntity().getType().name() : "") + ";" + npc.isFlyable() + ";"
+                + params.useNewPathfinder() + ";" + params.avoidWater() + ";" + params.pathDistanceMargin() + ";"
+                + params.range() + ";" + examiners;
+    }
+}
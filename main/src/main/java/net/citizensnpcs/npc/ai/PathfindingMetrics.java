@@ -0,0 +1,353 @@
+package net.citizensnpcs.npc.ai;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import net.citizensnpcs.Citizens;
+import net.citizensnpcs.Settings.Setting;
+import net.citizensnpcs.api.CitizensAPI;
+import net.citizensnpcs.api.ai.NavigatorParameters;
+import net.citizensnpcs.api.ai.event.CancelReason;
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.npc.ai.AStarNavigationStrategy.AStarPlanner;
+
+/**
+ * Records how much time each pathfinding strategy and NPC spends searching. Keeps histograms of plan time, blocks
+ * expanded and path length, path cache hits and the reasons navigation ended per strategy, totals per NPC and the most
+ * recent start and goal pairs, which can be exported as JSON lines or replayed to compare pathfinder changes. Main
+ * thread only.
+ */
+public class PathfindingMetrics {
+    private final Map<UUID, NPCTotals> npcs = new HashMap<>();
+    private Replay replay;
+    private final Deque<Search> searches = new ArrayDeque<>();
+    private final Map<String, StrategyStats> strategies = new TreeMap<>();
+
+    /**
+     * Writes the metrics to the file as one JSON object per line.
+     *
+     * @return the number of lines written
+     */
+    public int export(File file) throws IOException {
+        int lines = 0;
+        try (PrintWriter writer = new PrintWriter(file, StandardCharsets.UTF_8.name())) {
+            for (Map.Entry<String, StrategyStats> entry : strategies.entrySet()) {
+                StrategyStats stats = entry.getValue();
+                StringBuilder cancels = new StringBuilder();
+                for (Map.Entry<CancelReason, Integer> reason : stats.cancels.entrySet()) {
+                    cancels.append(cancels.length() == 0 ? "" : ",").append('"').append(reason.getKey().name())
+                            .append("\":").append(reason.getValue());
+                }
+                writer.println("{\"type\":\"strategy\",\"name\":\"" + escape(entry.getKey()) + "\",\"searches\":"
+                        + stats.searches + ",\"failed\":" + stats.failed + ",\"completed\":" + stats.completed
+                        + ",\"cacheHits\":" + stats.cacheHits + ",\"planMicros\":" + stats.planMicros.toJson()
+                        + ",\"expanded\":" + stats.expanded.toJson() + ",\"pathLength\":" + stats.pathLength.toJson()
+                        + ",\"cancelReasons\":{" + cancels + "}}");
+                lines++;
+            }
+            for (Map.Entry<UUID, NPCTotals> entry : npcs.entrySet()) {
+                NPCTotals totals = entry.getValue();
+                writer.println("{\"type\":\"npc\",\"uuid\":\"" + entry.getKey() + "\",\"id\":" + totals.id
+                        + ",\"name\":\"" + escape(totals.name) + "\",\"searches\":" + totals.searches
+                        + ",\"planMicros\":" + totals.nanos / 1000 + ",\"expanded\":" + totals.expanded + "}");
+                lines++;
+            }
+            for (Search search : searches) {
+                writer.println("{\"type\":\"search\",\"strategy\":\"" + escape(search.strategy) + "\",\"world\":\""
+                        + search.world + "\",\"from\":[" + search.from[0] + "," + search.from[1] + ","
+                        + search.from[2] + "],\"to\":[" + search.to[0] + "," + search.to[1] + "," + search.to[2]
+                        + "],\"micros\":" + search.nanos / 1000 + ",\"expanded\":" + search.expanded
+                        + ",\"length\":" + search.pathLength + ",\"found\":" + search.found + "}");
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    private StrategyStats getStats(String strategy) {
+        return strategies.computeIfAbsent(strategy, s -> new StrategyStats());
+    }
+
+    /**
+     * @return a summary of each strategy and the NPCs that spent the most time searching
+     */
+    public List<String> getSummary() {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, StrategyStats> entry : strategies.entrySet()) {
+            StrategyStats stats = entry.getValue();
+            lines.add("<yellow>" + entry.getKey() + "<green>: " + stats.searches + " searches (" + stats.failed
+                    + " failed), " + stats.cacheHits + " cache hits, " + stats.completed + " completed, cancelled "
+                    + stats.cancels);
+            lines.add("  <green>plan time (us) " + stats.planMicros);
+            lines.add("  <green>blocks expanded " + stats.expanded);
+            lines.add("  <green>path length " + stats.pathLength);
+        }
+        List<NPCTotals> top = new ArrayList<>(npcs.values());
+        top.sort(Comparator.comparingLong((NPCTotals totals) -> totals.nanos).reversed());
+        for (NPCTotals totals : top.subList(0, Math.min(top.size(), TOP_NPCS))) {
+            lines.add("<yellow>" + totals.name + " (" + totals.id + ")<green>: " + totals.searches + " searches, "
+                    + totals.nanos / 1000000 + "ms, " + totals.expanded + " blocks expanded");
+        }
+        return lines;
+    }
+
+    public void recordCacheHit(String strategy) {
+        getStats(strategy).cacheHits++;
+    }
+
+    /**
+     * Records how navigation with the strategy ended.
+     *
+     * @param reason
+     *            the cancel reason, or null if the navigation completed
+     */
+    public void recordEnd(String strategy, CancelReason reason) {
+        StrategyStats stats = getStats(strategy);
+        if (reason == null) {
+            stats.completed++;
+        } else {
+            stats.cancels.merge(reason, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Records a finished search.
+     *
+     * @param expanded
+     *            the number of blocks expanded, or -1 if unknown
+     * @param pathLength
+     *            the number of points in the found path, or -1 if no path was found
+     */
+    public void recordSearch(NPC npc, String strategy, Location from, Location to, long nanos, int expanded,
+            int pathLength) {
+        StrategyStats stats = getStats(strategy);
+        stats.searches++;
+        stats.planMicros.add(nanos / 1000);
+        if (expanded >= 0) {
+            stats.expanded.add(expanded);
+        }
+        if (pathLength >= 0) {
+            stats.pathLength.add(pathLength);
+        } else {
+            stats.failed++;
+        }
+        if (npc != null) {
+            NPCTotals totals = npcs.computeIfAbsent(npc.getUniqueId(), uuid -> new NPCTotals());
+            totals.id = npc.getId();
+            totals.name = npc.getName();
+            totals.searches++;
+            totals.nanos += nanos;
+            totals.expanded += Math.max(0, expanded);
+        }
+        if (from == null || to == null || from.getWorld() == null || from.getWorld() != to.getWorld())
+            return;
+        searches.addLast(new Search(strategy, from, to, nanos, expanded, pathLength));
+        while (searches.size() > Setting.PATHFINDING_METRICS_MAX_SEARCHES.asInt()) {
+            searches.removeFirst();
+        }
+    }
+
+    /**
+     * Searches the recorded start and goal pairs again with the given parameters, without moving any NPC. The searches
+     * are spread over the following ticks, spending at most a few milliseconds of each tick, and replace any replay
+     * still in progress. Results are not recorded.
+     *
+     * @param callback
+     *            receives the number of pairs replayed, the number of paths found and the total search time in
+     *            nanoseconds once every pair has been searched
+     * @return the number of pairs that will be replayed
+     */
+    public int replay(NavigatorParameters params, Consumer<long[]> callback) {
+        if (replay != null) {
+            replay.cancel();
+        }
+        Deque<Search> queue = new ArrayDeque<>(searches);
+        replay = new Replay(params, queue, callback);
+        replay.runTaskTimer(CitizensAPI.getPlugin(), 1, 1);
+        return queue.size();
+    }
+
+    public void reset() {
+        strategies.clear();
+        npcs.clear();
+        searches.clear();
+    }
+
+    private static class Histogram {
+        private final long[] bounds;
+        private final long[] counts;
+
+        private Histogram(long... bounds) {
+            this.bounds = bounds;
+            counts = new long[bounds.length + 1];
+        }
+
+        private void add(long value) {
+            int i = 0;
+            while (i < bounds.length && value >= bounds[i]) {
+                i++;
+            }
+            counts[i]++;
+        }
+
+        private String label(int i) {
+            return i < bounds.length ? "<" + bounds[i] : ">=" + bounds[bounds.length - 1];
+        }
+
+        private String toJson() {
+            StringBuilder builder = new StringBuilder("{");
+            for (int i = 0; i < counts.length; i++) {
+                builder.append(i == 0 ? "" : ",").append('"').append(label(i)).append("\":").append(counts[i]);
+            }
+            return builder.append('}').toString();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < counts.length; i++) {
+                builder.append(i == 0 ? "" : " ").append(label(i)).append(": ").append(counts[i]);
+            }
+            return builder.toString();
+        }
+    }
+
+    private class Replay extends BukkitRunnable {
+        private final Consumer<long[]> callback;
+        private final NavigatorParameters params;
+        private AStarPlanner planner;
+        private final Deque<Search> queue;
+        private final long[] result = new long[3];
+
+        private Replay(NavigatorParameters params, Deque<Search> queue, Consumer<long[]> callback) {
+            this.params = params;
+            this.queue = queue;
+            this.callback = callback;
+        }
+
+        @Override
+        public void cancel() {
+            super.cancel();
+            if (planner != null) {
+                planner.cancel();
+                planner = null;
+            }
+        }
+
+        @Override
+        public void run() {
+            int iterationsPerTick = Math.max(1, Setting.ASTAR_ITERATIONS_PER_TICK.asInt());
+            int maxIterations = Math.max(1, Setting.MAXIMUM_ASTAR_ITERATIONS.asInt());
+            long deadline = System.nanoTime() + REPLAY_MILLIS_PER_TICK * 1000000L;
+            while (System.nanoTime() < deadline) {
+                long start = System.nanoTime();
+                if (planner == null) {
+                    Search search = queue.poll();
+                    if (search == null) {
+                        cancel();
+                        replay = null;
+                        callback.accept(result);
+                        return;
+                    }
+                    World world = Bukkit.getWorld(search.world);
+                    if (world == null)
+                        continue;
+                    Location from = new Location(world, search.from[0], search.from[1], search.from[2]);
+                    Location to = new Location(world, search.to[0], search.to[1], search.to[2]);
+                    planner = new AStarPlanner(params.clone(), from, to);
+                    result[0]++;
+                }
+                CancelReason reason = planner.tick(iterationsPerTick, maxIterations);
+                if (planner.plan != null) {
+                    result[1]++;
+                }
+                if (planner.plan != null || reason != null) {
+                    planner = null;
+                }
+                result[2] += System.nanoTime() - start;
+            }
+        }
+    }
+
+    private static class NPCTotals {
+        private long expanded;
+        private int id;
+        private String name;
+        private long nanos;
+        private int searches;
+    }
+
+    private static class Search {
+        private final long expanded;
+        private final boolean found;
+        private final int[] from;
+        private final long nanos;
+        private final int pathLength;
+        private final String strategy;
+        private final int[] to;
+        private final UUID world;
+
+        private Search(String strategy, Location from, Location to, long nanos, int expanded, int pathLength) {
+            this.strategy = strategy;
+            this.world = from.getWorld().getUID();
+            this.from = new int[] { from.getBlockX(), from.getBlockY(), from.getBlockZ() };
+            this.to = new int[] { to.getBlockX(), to.getBlockY(), to.getBlockZ() };
+            this.nanos = nanos;
+            this.expanded = expanded;
+            this.pathLength = pathLength;
+            this.found = pathLength >= 0;
+        }
+    }
+
+    private static class StrategyStats {
+        private int cacheHits;
+        private final Map<CancelReason, Integer> cancels = new EnumMap<>(CancelReason.class);
+        private int completed;
+        private final Histogram expanded = new Histogram(64, 256, 1024, 4096, 16384);
+        private int failed;
+        private final Histogram pathLength = new Histogram(8, 16, 32, 64, 128);
+        private final Histogram planMicros = new Histogram(100, 500, 1000, 5000, 10000, 50000);
+        private int searches;
+    }
+
+    private static String escape(String string) {
+        return string == null ? "" : string.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    /**
+     * @return the shared metrics, or null if Citizens is not enabled
+     */
+    public static PathfindingMetrics getInstance() {
+        if (!CitizensAPI.hasImplementation() || !(CitizensAPI.getPlugin() instanceof Citizens))
+            return null;
+        return ((Citizens) CitizensAPI.getPlugin()).getPathfindingMetrics();
+    }
+
+    /**
+     * @return the shared metrics if pathfinding should be recorded, otherwise null
+     */
+    public static PathfindingMetrics getIfEnabled() {
+        return Setting.PATHFINDING_METRICS_ENABLED.asBoolean() ? getInstance() : null;
+    }
+
+    private static final int REPLAY_MILLIS_PER_TICK = 5;
+    private static final int TOP_NPCS = 5;
+}
@@ -0,0 +1,172 @@
+package net.citizensnpcs.npc.ai;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import org.bukkit.Location;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import net.citizensnpcs.Citizens;
+import net.citizensnpcs.Settings.Setting;
+import net.citizensnpcs.api.CitizensAPI;
+import net.citizensnpcs.api.ai.event.CancelReason;
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.api.util.Messaging;
+import net.citizensnpcs.npc.ai.AStarNavigationStrategy.AStarPlanner;
+
+/**
+ * Shares a global per-tick pathfinding budget between all NPCs. Pending searches are queued and served in priority
+ * order, favouring NPCs near players and jobs that have waited longest, so that bursts of navigation requests are
+ * spread over several ticks instead of being run at once.
+ */
+public class PathfindingScheduler extends BukkitRunnable {
+    private final List<Job> jobs = new ArrayList<>();
+    private long tick;
+
+    @Override
+    public void cancel() {
+        super.cancel();
+        for (Job job : jobs) {
+            job.finish(CancelReason.PLUGIN);
+        }
+        jobs.clear();
+    }
+
+    @Override
+    public void run() {
+        tick++;
+        if (jobs.isEmpty())
+            return;
+        int budget = Setting.PATHFINDING_BUDGET_ITERATIONS_PER_TICK.asInt();
+        long deadline = System.nanoTime() + Setting.PATHFINDING_BUDGET_MAX_MILLIS_PER_TICK.asInt() * 1000000L;
+        int slice = Math.max(1, Setting.ASTAR_ITERATIONS_PER_TICK.asInt());
+        double playerRange = Setting.PATHFINDING_BUDGET_PLAYER_RANGE.asDouble();
+        for (Job job : jobs) {
+            job.updatePriority(playerRange);
+        }
+        jobs.sort(Comparator.comparingDouble((Job job) -> job.priority).reversed());
+        for (Iterator<Job> itr = jobs.iterator(); itr.hasNext();) {
+            Job job = itr.next();
+            if (job.done) {
+                itr.remove();
+                continue;
+            }
+            if (budget <= 0 || System.nanoTime() > deadline)
+                continue;
+            int used;
+            try {
+                used = job.run(Math.min(slice, budget));
+            } catch (Throwable t) {
+                Messaging.severe("Error while pathfinding for", job.npc);
+                t.printStackTrace();
+                job.finish(CancelReason.STUCK);
+                used = 0;
+            }
+            budget -= used;
+            job.lastServed = tick;
+            if (job.done) {
+                itr.remove();
+            }
+        }
+    }
+
+    /**
+     * Queues a search to be run from the shared budget. The planner must not be ticked by the caller until the
+     * returned job is done.
+     */
+    public Job submit(NPC npc, AStarPlanner planner) {
+        Job job = new Job(npc, planner, null, 0);
+        job.lastServed = tick;
+        jobs.add(job);
+        return job;
+    }
+
+    /**
+     * Queues an indivisible search, such as a Minecraft pathfinder repath, that costs roughly <code>cost</code>
+     * iterations and will be run in a single tick.
+     */
+    public Job submit(NPC npc, Runnable task, int cost) {
+        Job job = new Job(npc, null, task, cost);
+        job.lastServed = tick;
+        jobs.add(job);
+        return job;
+    }
+
+    public class Job {
+        private boolean done;
+        private final int cost;
+        private long lastServed;
+        private final NPC npc;
+        private final AStarPlanner planner;
+        private double priority;
+        private CancelReason reason;
+        private final Runnable task;
+
+        private Job(NPC npc, AStarPlanner planner, Runnable task, int cost) {
+            this.npc = npc;
+            this.planner = planner;
+            this.task = task;
+            this.cost = cost;
+        }
+
+        /**
+         * Removes this job from the queue without running it further.
+         */
+        public void cancel() {
+            done = true;
+        }
+
+        private void finish(CancelReason reason) {
+            this.reason = reason;
+            done = true;
+        }
+
+        public CancelReason getCancelReason() {
+            return reason;
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+
+        private int run(int budget) {
+            if (task != null) {
+                // indivisible jobs may overrun the budget but never run while it is exhausted
+                task.run();
+                finish(null);
+                return cost;
+            }
+            CancelReason result = planner.tick(budget, Setting.MAXIMUM_ASTAR_ITERATIONS.asInt());
+            if (result != null || planner.plan != null) {
+                finish(result);
+            }
+            return budget;
+        }
+
+        private void updatePriority(double playerRange) {
+            priority = tick - lastServed;
+            if (!npc.isSpawned()) {
+                return;
+            }
+            Location loc = npc.getEntity().getLocation(CACHE_LOCATION);
+            if (CitizensAPI.getLocationLookup().getNearbyPlayers(loc, playerRange).iterator().hasNext()) {
+                priority += NEARBY_PLAYER_PRIORITY;
+            }
+        }
+    }
+
+    /**
+     * @return the shared scheduler if a global pathfinding budget is configured, otherwise null
+     */
+    public static PathfindingScheduler getIfEnabled() {
+        if (Setting.PATHFINDING_BUDGET_ITERATIONS_PER_TICK.asInt() <= 0 || !CitizensAPI.hasImplementation()
+                || !(CitizensAPI.getPlugin() instanceof Citizens))
+            return null;
+        return ((Citizens) CitizensAPI.getPlugin()).getPathfindingScheduler();
+    }
+
+    private static final Location CACHE_LOCATION = new Location(null, 0, 0, 0);
+    private static final int NEARBY_PLAYER_PRIORITY = 20;
+}
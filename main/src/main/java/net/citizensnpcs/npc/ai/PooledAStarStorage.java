@@ -0,0 +1,112 @@
+package net.citizensnpcs.npc.ai;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.bukkit.util.Vector;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectHeapPriorityQueue;
+import net.citizensnpcs.api.astar.AStarNode;
+import net.citizensnpcs.api.astar.AStarStorage;
+import net.citizensnpcs.api.astar.pathfinder.PathPoint;
+
+/**
+ * An {@link AStarStorage} for block pathfinding that keys the open and closed sets by packed block coordinates instead
+ * of hashing node objects. Instances are pooled and reused between searches via {@link #acquire()} and
+ * {@link #release()} so the backing tables only grow once.
+ */
+public class PooledAStarStorage implements AStarStorage {
+    private final Long2ObjectOpenHashMap<AStarNode> closed = new Long2ObjectOpenHashMap<>(INITIAL_CAPACITY);
+    private final Long2ObjectOpenHashMap<AStarNode> open = new Long2ObjectOpenHashMap<>(INITIAL_CAPACITY);
+    private final ObjectHeapPriorityQueue<AStarNode> queue = new ObjectHeapPriorityQueue<>(INITIAL_CAPACITY);
+
+    private PooledAStarStorage() {
+    }
+
+    @Override
+    public void close(AStarNode node) {
+        long key = key(node);
+        open.remove(key);
+        closed.put(key, node);
+    }
+
+    @Override
+    public AStarNode getBestNode() {
+        return queue.isEmpty() ? null : queue.first();
+    }
+
+    @Override
+    public void open(AStarNode node) {
+        long key = key(node);
+        queue.enqueue(node);
+        open.put(key, node);
+        closed.remove(key);
+    }
+
+    /**
+     * Clears this storage and returns it to the pool. The storage must not be used afterwards.
+     */
+    public void release() {
+        boolean oversized = open.size() + closed.size() > MAX_RETAINED_NODES;
+        open.clear();
+        closed.clear();
+        queue.clear();
+        if (oversized) {
+            open.trim(INITIAL_CAPACITY);
+            closed.trim(INITIAL_CAPACITY);
+            queue.trim();
+        }
+        if (POOL.size() < MAX_POOLED) {
+            POOL.offer(this);
+        }
+    }
+
+    @Override
+    public AStarNode removeBestNode() {
+        return queue.isEmpty() ? null : queue.dequeue();
+    }
+
+    @Override
+    public boolean shouldExamine(AStarNode neighbour) {
+        long key = key(neighbour);
+        AStarNode opened = open.get(key);
+        if (opened != null && opened.compareTo(neighbour) > 0) {
+            open.remove(key);
+            opened = null;
+        }
+        AStarNode closedNode = closed.get(key);
+        if (closedNode != null && closedNode.compareTo(neighbour) > 0) {
+            closed.remove(key);
+            closedNode = null;
+        }
+        return opened == null && closedNode == null;
+    }
+
+    @Override
+    public String toString() {
+        return "PooledAStarStorage [open=" + open.size() + ", closed=" + closed.size() + "]";
+    }
+
+    public static PooledAStarStorage acquire() {
+        PooledAStarStorage storage = POOL.poll();
+        return storage != null ? storage : new PooledAStarStorage();
+    }
+
+    private static long key(AStarNode node) {
+        Vector vector = ((PathPoint) node).getVector();
+        return pack(vector.getBlockX(), vector.getBlockY(), vector.getBlockZ());
+    }
+
+    /**
+     * Packs block coordinates into a long using 26 bits for x and z and 12 bits for y.
+     */
+    public static long pack(int x, int y, int z) {
+        return (x & 0x3FFFFFFL) << 38 | (z & 0x3FFFFFFL) << 12 | y & 0xFFFL;
+    }
+
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int MAX_POOLED = 16;
+    private static final int MAX_RETAINED_NODES = 16384;
+    private static final Queue<PooledAStarStorage> POOL = new ConcurrentLinkedQueue<>();
+}
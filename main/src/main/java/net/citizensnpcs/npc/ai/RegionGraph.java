@@ -0,0 +1,368 @@
+package net.citizensnpcs.npc.ai;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.util.Vector;
+
+import net.citizensnpcs.Citizens;
+import net.citizensnpcs.Settings.Setting;
+import net.citizensnpcs.api.CitizensAPI;
+import net.citizensnpcs.api.util.SpigotUtil;
+import net.citizensnpcs.util.Util;
+
+/**
+ * A coarse graph of walkable connections between 16x16x16 chunk sections, used to plan long paths before refining
+ * them block by block. Each section lists its portals: groups of standable cells on its boundary that step into a
+ * standable cell of a neighbouring section. Sections are built lazily from loaded chunks and dropped when a block
+ * around them changes or their chunk unloads, so the graph stays current without rebuilding whole areas.
+ * <p>
+ * Portals within a section are assumed to be connected to each other, and only walking and single block steps are
+ * considered. Routes are therefore estimates that the block pathfinder must confirm. Main thread only.
+ */
+public class RegionGraph extends BlockChangeListener {
+    private final Map<UUID, Map<Long, Map<Integer, Region>>> worlds = new HashMap<>();
+
+    private Region build(World world, int sx, int sy, int sz) {
+        List<Portal> portals = new ArrayList<>();
+        int minX = sx << 4, minY = sy << 4, minZ = sz << 4;
+        // the four sides, as (along, y) grids
+        for (BlockFace face : SIDES) {
+            Portal[] cells = new Portal[FACE_AREA];
+            for (int along = 0; along < 16; along++) {
+                for (int ly = 0; ly < 16; ly++) {
+                    int x = face.getModX() == 0 ? minX + along : face.getModX() > 0 ? minX + 15 : minX;
+                    int z = face.getModZ() == 0 ? minZ + along : face.getModZ() > 0 ? minZ + 15 : minZ;
+                    cells[along << 4 | ly] = getPortal(world, x, minY + ly, z, face, 0);
+                }
+            }
+            addPortals(cells, portals, true);
+        }
+        // steps up out of the top layer and down out of the bottom layer, as (x, z) grids
+        for (int dy = -1; dy <= 1; dy += 2) {
+            int y = dy > 0 ? minY + 15 : minY;
+            Portal[] cells = new Portal[FACE_AREA];
+            for (int lx = 0; lx < 16; lx++) {
+                for (int lz = 0; lz < 16; lz++) {
+                    for (BlockFace face : SIDES) {
+                        Portal cell = getPortal(world, minX + lx, y, minZ + lz, face, dy);
+                        if (cell != null) {
+                            cells[lx << 4 | lz] = cell;
+                            break;
+                        }
+                    }
+                }
+            }
+            addPortals(cells, portals, false);
+        }
+        return new Region(portals);
+    }
+
+    @Override
+    protected void blockChanged(Block block) {
+        Map<Long, Map<Integer, Region>> chunks = worlds.get(block.getWorld().getUID());
+        if (chunks == null)
+            return;
+        // standability depends on the blocks above and below, and portals on the cells across a boundary
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dz = -1; dz <= 1; dz++) {
+                Map<Integer, Region> sections = chunks.get(chunkKey(block.getX() + dx >> 4, block.getZ() + dz >> 4));
+                if (sections == null)
+                    continue;
+                for (int dy = -2; dy <= 2; dy++) {
+                    sections.remove(block.getY() + dy >> 4);
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        worlds.clear();
+    }
+
+    private Region getRegion(World world, int sx, int sy, int sz) {
+        if (!world.isChunkLoaded(sx, sz) || !SpigotUtil.checkYSafe(sy << 4, world))
+            return null;
+        Map<Integer, Region> sections = worlds.computeIfAbsent(world.getUID(), uid -> new HashMap<>())
+                .computeIfAbsent(chunkKey(sx, sz), key -> new HashMap<>());
+        Region region = sections.get(sy);
+        if (region == null) {
+            sections.put(sy, region = build(world, sx, sy, sz));
+        }
+        return region;
+    }
+
+    /**
+     * Sections next to a newly loaded chunk were built without portals into it, so they are rebuilt on demand.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkLoad(ChunkLoadEvent event) {
+        removeChunks(event.getWorld(), event.getChunk().getX(), event.getChunk().getZ(), 1);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        removeChunks(event.getWorld(), event.getChunk().getX(), event.getChunk().getZ(), 0);
+    }
+
+    private void removeChunks(World world, int cx, int cz, int radius) {
+        Map<Long, Map<Integer, Region>> chunks = worlds.get(world.getUID());
+        if (chunks == null)
+            return;
+        for (int x = cx - radius; x <= cx + radius; x++) {
+            for (int z = cz - radius; z <= cz + radius; z++) {
+                chunks.remove(chunkKey(x, z));
+            }
+        }
+    }
+
+    /**
+     * Starts a coarse search between two locations in the same world. The search is advanced by
+     * {@link Search#tick(int)}.
+     */
+    public Search search(Location from, Location to) {
+        return new Search(from, to);
+    }
+
+    @Override
+    protected void worldUnloaded(World world) {
+        worlds.remove(world.getUID());
+    }
+
+    private static class Node implements Comparable<Node> {
+        private final float f;
+        private final float g;
+        private final Node parent;
+        private final int x, y, z;
+
+        public Node(int x, int y, int z, float g, float f, Node parent) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.g = g;
+            this.f = f;
+            this.parent = parent;
+        }
+
+        @Override
+        public int compareTo(Node other) {
+            return Float.compare(f, other.f);
+        }
+    }
+
+    private static class Portal {
+        private final long target;
+        private final int x, y, z;
+        private final int toX, toY, toZ;
+
+        public Portal(int x, int y, int z, int toX, int toY, int toZ) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.toX = toX;
+            this.toY = toY;
+            this.toZ = toZ;
+            this.target = key(toX >> 4, toY >> 4, toZ >> 4);
+        }
+    }
+
+    private static class Region {
+        private final List<Portal> portals;
+
+        public Region(List<Portal> portals) {
+            this.portals = portals;
+        }
+    }
+
+    /**
+     * An incremental A* search over section portals.
+     */
+    public class Search {
+        private final Map<Long, Float> best = new HashMap<>();
+        private int expansions;
+        private boolean finished;
+        private final Vector goal;
+        private final long goalRegion;
+        private final PriorityQueue<Node> open = new PriorityQueue<>();
+        private List<Vector> route;
+        private final World world;
+
+        private Search(Location from, Location to) {
+            this.world = from.getWorld();
+            this.goal = to.toVector();
+            goalRegion = key(to.getBlockX() >> 4, to.getBlockY() >> 4, to.getBlockZ() >> 4);
+            open.add(new Node(from.getBlockX(), from.getBlockY(), from.getBlockZ(), 0,
+                    distance(from.getBlockX(), from.getBlockY(), from.getBlockZ(), goal), null));
+        }
+
+        /**
+         * @return the waypoints to walk through, ending with the destination, or null if no route was found
+         */
+        public List<Vector> getRoute() {
+            return route;
+        }
+
+        /**
+         * Expands up to the given number of nodes.
+         *
+         * @return whether the search has finished
+         */
+        public boolean tick(int maxExpansions) {
+            if (finished)
+                return true;
+            for (int i = 0; i < Math.max(1, maxExpansions); i++) {
+                Node node = open.poll();
+                if (node == null || ++expansions > MAX_EXPANSIONS)
+                    return finished = true;
+                if (key(node.x >> 4, node.y >> 4, node.z >> 4) == goalRegion) {
+                    List<Vector> result = new ArrayList<>();
+                    result.add(goal.clone());
+                    for (Node n = node; n.parent != null; n = n.parent) {
+                        result.add(new Vector(n.x, n.y, n.z));
+                    }
+                    Collections.reverse(result);
+                    route = result;
+                    return finished = true;
+                }
+                Float seen = best.get(key(node.x, node.y, node.z));
+                if (seen != null && seen < node.g)
+                    continue;
+                Region region = getRegion(world, node.x >> 4, node.y >> 4, node.z >> 4);
+                if (region == null)
+                    continue;
+                for (Portal portal : region.portals) {
+                    float g = node.g + distance(node.x, node.y, node.z, portal.x, portal.y, portal.z) + 1;
+                    long key = key(portal.toX, portal.toY, portal.toZ);
+                    Float previous = best.get(key);
+                    if (previous != null && previous <= g)
+                        continue;
+                    best.put(key, g);
+                    float h = distance(portal.toX, portal.toY, portal.toZ, goal);
+                    open.add(new Node(portal.toX, portal.toY, portal.toZ, g, g + h, node));
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Groups connected portal cells of a face grid that lead into the same section, keeping the cell nearest each
+     * group's centre. On side grids, cells in neighbouring columns connect if they are at most one block apart
+     * vertically, since walkable ground rises and falls along a side.
+     */
+    private static void addPortals(Portal[] cells, List<Portal> portals, boolean side) {
+        boolean[] visited = new boolean[FACE_AREA];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        List<Integer> group = new ArrayList<>();
+        for (int start = 0; start < FACE_AREA; start++) {
+            if (visited[start] || cells[start] == null)
+                continue;
+            visited[start] = true;
+            queue.add(start);
+            group.clear();
+            double cu = 0, cv = 0;
+            while (!queue.isEmpty()) {
+                int idx = queue.poll();
+                group.add(idx);
+                int u = idx >> 4, v = idx & 15;
+                cu += u;
+                cv += v;
+                for (int du = -1; du <= 1; du++) {
+                    for (int dv = -1; dv <= 1; dv++) {
+                        int nu = u + du, nv = v + dv;
+                        if ((du == 0 && dv == 0) || (side && du == 0) || nu < 0 || nu > 15 || nv < 0 || nv > 15)
+                            continue;
+                        int next = nu << 4 | nv;
+                        if (!visited[next] && cells[next] != null && cells[next].target == cells[start].target) {
+                            visited[next] = true;
+                            queue.add(next);
+                        }
+                    }
+                }
+            }
+            cu /= group.size();
+            cv /= group.size();
+            int chosen = group.get(0);
+            double closest = Double.MAX_VALUE;
+            for (int idx : group) {
+                double du = (idx >> 4) - cu, dv = (idx & 15) - cv;
+                if (du * du + dv * dv < closest) {
+                    closest = du * du + dv * dv;
+                    chosen = idx;
+                }
+            }
+            portals.add(cells[chosen]);
+        }
+    }
+
+    private static long chunkKey(int cx, int cz) {
+        return (long) cx << 32 | cz & 0xFFFFFFFFL;
+    }
+
+    private static float distance(int x1, int y1, int z1, int x2, int y2, int z2) {
+        int dx = x2 - x1, dy = y2 - y1, dz = z2 - z1;
+        return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    private static float distance(int x, int y, int z, Vector goal) {
+        double dx = goal.getX() - x, dy = goal.getY() - y, dz = goal.getZ() - z;
+        return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    /**
+     * @return the shared graph if long paths should be planned hierarchically, otherwise null
+     */
+    public static RegionGraph getIfEnabled() {
+        return Setting.NEW_PATHFINDER_HIERARCHICAL.asBoolean() ? getInstance() : null;
+    }
+
+    /**
+     * @return the shared graph, or null if Citizens is not enabled
+     */
+    public static RegionGraph getInstance() {
+        if (!CitizensAPI.hasImplementation() || !(CitizensAPI.getPlugin() instanceof Citizens))
+            return null;
+        return ((Citizens) CitizensAPI.getPlugin()).getRegionGraph();
+    }
+
+    /**
+     * @return a portal if the cell is standable and steps across <code>face</code> into a standable cell of another
+     *         section, otherwise null. The step changes height by <code>dy</code>, or by any of 0, 1 or -1 if it is
+     *         zero.
+     */
+    private static Portal getPortal(World world, int x, int y, int z, BlockFace face, int dy) {
+        if (!Util.isStandable(world, x, y, z))
+            return null;
+        for (int step : dy != 0 ? new int[] { dy } : STEPS) {
+            int nx = x + face.getModX(), ny = y + step, nz = z + face.getModZ();
+            if (nx >> 4 == x >> 4 && ny >> 4 == y >> 4 && nz >> 4 == z >> 4)
+                continue;
+            if (Util.isStandable(world, nx, ny, nz))
+                return new Portal(x, y, z, nx, ny, nz);
+        }
+        return null;
+    }
+
+    private static long key(int x, int y, int z) {
+        return ((long) x & 0x3FFFFFF) << 38 | ((long) z & 0x3FFFFFF) << 12 | y & 0xFFF;
+    }
+
+    private static final int FACE_AREA = 16 * 16;
+    private static final int MAX_EXPANSIONS = 4096;
+    private static final BlockFace[] SIDES = { BlockFace.NORTH, BlockFace.EAST, BlockFace.SOUTH, BlockFace.WEST };
+    private static final int[] STEPS = { 0, 1, -1 };
+}
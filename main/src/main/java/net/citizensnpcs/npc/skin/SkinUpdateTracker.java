@@ -36,6 +36,7 @@ import net.citizensnpcs.util.Util;
  * @see net.citizensnpcs.EventListen
  */
 public class SkinUpdateTracker {
+    private final SkinnableGrid grid = new SkinnableGrid();
     private final Map<SkinnableEntity, Void> navigating = new WeakHashMap<>(25);
     private final Map<UUID, PlayerTracker> playerTrackers = new HashMap<>(
             Math.max(128, Math.min(1024, Bukkit.getMaxPlayers() / 2)));
@@ -96,27 +97,23 @@ public class SkinUpdateTracker {
     private List<SkinnableEntity> getNearbyNPCs(Player player, boolean reset, boolean checkFov) {
         List<SkinnableEntity> results = new ArrayList<>();
         PlayerTracker tracker = getTracker(player, reset);
-        for (NPC npc : getAllNPCs()) {
-            SkinnableEntity skinnable = getSkinnable(npc);
-            // if checking field of view, don't add skins that have already been updated for FOV
-            if (skinnable == null || checkFov && tracker.fovVisibleSkins.contains(skinnable)) {
-                continue;
-            }
-            if (canSee(player, skinnable, checkFov)) {
-                results.add(skinnable);
-            }
-        }
+        grid.getNearby(player.getLocation(), results);
+        // if checking field of view, don't add skins that have already been updated for FOV
+        results.removeIf(skinnable -> checkFov && tracker.fovVisibleSkins.contains(skinnable)
+                || !canSee(player, skinnable, checkFov));
         return results;
     }
 
     // get all navigating skinnable NPC's within the players FOV that have not been "seen" yet
     private void getNewVisibleNavigating(Player player, Collection<SkinnableEntity> output) {
         PlayerTracker tracker = getTracker(player, false);
+        List<SkinnableEntity> nearby = new ArrayList<>();
+        grid.getNearby(player.getLocation(), nearby);
 
-        for (SkinnableEntity skinnable : navigating.keySet()) {
+        for (SkinnableEntity skinnable : nearby) {
             // make sure player hasn't already been updated to prevent excessive tab list flashing
             // while NPC's are navigating and to reduce the number of times #canSee is invoked.
-            if (tracker.fovVisibleSkins.contains(skinnable)) {
+            if (!navigating.containsKey(skinnable) || tracker.fovVisibleSkins.contains(skinnable)) {
                 continue;
             }
             if (canSee(player, skinnable, true)) {
@@ -160,6 +157,7 @@ public class SkinUpdateTracker {
             return;
 
         navigating.remove(skinnable);
+        grid.remove(skinnable);
 
         for (PlayerTracker tracker : playerTrackers.values()) {
             tracker.fovVisibleSkins.remove(skinnable);
@@ -208,6 +206,7 @@ public class SkinUpdateTracker {
         if (skinnable == null)
             return;
 
+        grid.update(skinnable);
         // reset nearby players in case they are not looking at the NPC when it spawns.
         resetNearbyPlayers(skinnable);
     }
@@ -252,6 +251,13 @@ public class SkinUpdateTracker {
     public void reset() {
         navigating.clear();
         playerTrackers.clear();
+        grid.clear();
+        for (NPC npc : getAllNPCs()) {
+            SkinnableEntity skinnable = getSkinnable(npc);
+            if (skinnable != null) {
+                grid.update(skinnable);
+            }
+        }
     }
 
     // hard reset players near a skinnable NPC
@@ -312,6 +318,7 @@ public class SkinUpdateTracker {
     private class NPCNavigationTracker extends BukkitRunnable {
         @Override
         public void run() {
+            grid.refresh();
             if (navigating.isEmpty() || playerTrackers.isEmpty())
                 return;
 
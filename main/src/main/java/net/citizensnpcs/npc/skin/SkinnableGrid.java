@@ -0,0 +1,143 @@
+package net.citizensnpcs.npc.skin;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
+import net.citizensnpcs.Settings.Setting;
+import net.citizensnpcs.api.npc.NPC;
+
+/**
+ * A per-world grid of spawned skinnable NPCs, so that the NPCs near a player can be found without scanning every NPC.
+ * Positions are updated on spawn and by periodic {@link #refresh()} calls.
+ */
+class SkinnableGrid {
+    private final Map<SkinnableEntity, Cell> cells = new HashMap<>();
+    private final Location location = new Location(null, 0, 0, 0);
+    private double maxRange;
+    private final Map<UUID, Map<Long, Set<SkinnableEntity>>> worlds = new HashMap<>();
+
+    public void clear() {
+        cells.clear();
+        worlds.clear();
+        maxRange = 0;
+    }
+
+    /**
+     * Adds skinnable NPCs within the largest tracking range of any indexed NPC around <code>loc</code> to the output.
+     * Callers must still check the exact range of each NPC.
+     */
+    public void getNearby(Location loc, Collection<SkinnableEntity> output) {
+        Map<Long, Set<SkinnableEntity>> world = worlds.get(loc.getWorld().getUID());
+        if (world == null)
+            return;
+        // one extra cell covers NPCs that have moved since the last refresh
+        int radius = (int) Math.ceil(maxRange / CELL_SIZE) + 1;
+        int cx = loc.getBlockX() >> CELL_SHIFT, cz = loc.getBlockZ() >> CELL_SHIFT;
+        for (int x = cx - radius; x <= cx + radius; x++) {
+            for (int z = cz - radius; z <= cz + radius; z++) {
+                Set<SkinnableEntity> cell = world.get(key(x, z));
+                if (cell != null) {
+                    output.addAll(cell);
+                }
+            }
+        }
+    }
+
+    public void remove(SkinnableEntity skinnable) {
+        Cell cell = cells.remove(skinnable);
+        if (cell != null) {
+            removeFromCell(cell, skinnable);
+        }
+    }
+
+    private void removeFromCell(Cell cell, SkinnableEntity skinnable) {
+        Map<Long, Set<SkinnableEntity>> world = worlds.get(cell.world);
+        if (world == null)
+            return;
+        Set<SkinnableEntity> set = world.get(cell.key);
+        if (set == null)
+            return;
+        set.remove(skinnable);
+        if (set.isEmpty()) {
+            world.remove(cell.key);
+            if (world.isEmpty()) {
+                worlds.remove(cell.world);
+            }
+        }
+    }
+
+    /**
+     * Moves every indexed NPC to its current cell and drops NPCs whose entity is no longer valid.
+     */
+    public void refresh() {
+        double range = 0;
+        for (Iterator<SkinnableEntity> itr = cells.keySet().iterator(); itr.hasNext();) {
+            SkinnableEntity skinnable = itr.next();
+            Player entity = skinnable.getBukkitEntity();
+            if (entity == null || !entity.isValid()) {
+                Cell old = cells.get(skinnable);
+                itr.remove();
+                removeFromCell(old, skinnable);
+                continue;
+            }
+            range = Math.max(range, getRange(skinnable));
+            move(skinnable, entity);
+        }
+        maxRange = range;
+    }
+
+    /**
+     * Adds the NPC to the grid, or moves it to its current cell if already indexed.
+     */
+    public void update(SkinnableEntity skinnable) {
+        Player entity = skinnable.getBukkitEntity();
+        if (entity == null)
+            return;
+        maxRange = Math.max(maxRange, getRange(skinnable));
+        move(skinnable, entity);
+    }
+
+    private void move(SkinnableEntity skinnable, Player entity) {
+        entity.getLocation(location);
+        UUID world = location.getWorld().getUID();
+        long key = key(location.getBlockX() >> CELL_SHIFT, location.getBlockZ() >> CELL_SHIFT);
+        Cell old = cells.get(skinnable);
+        if (old != null && old.key == key && old.world.equals(world))
+            return;
+        if (old != null) {
+            removeFromCell(old, skinnable);
+        }
+        cells.put(skinnable, new Cell(world, key));
+        worlds.computeIfAbsent(world, w -> new HashMap<>()).computeIfAbsent(key, k -> new LinkedHashSet<>())
+                .add(skinnable);
+    }
+
+    private static class Cell {
+        private final long key;
+        private final UUID world;
+
+        public Cell(UUID world, long key) {
+            this.world = world;
+            this.key = key;
+        }
+    }
+
+    private static double getRange(SkinnableEntity skinnable) {
+        return skinnable.getNPC().data().get(NPC.Metadata.TRACKING_RANGE, Setting.NPC_SKIN_VIEW_DISTANCE.asInt());
+    }
+
+    private static long key(int x, int z) {
+        return (long) x << 32 | z & 0xFFFFFFFFL;
+    }
+
+    private static final int CELL_SHIFT = 5;
+    private static final int CELL_SIZE = 1 << CELL_SHIFT;
+}
@@ -17,11 +17,13 @@ import net.citizensnpcs.api.ai.flocking.SeparationBehavior;
 import net.citizensnpcs.api.persistence.Persist;
 import net.citizensnpcs.api.trait.Trait;
 import net.citizensnpcs.api.trait.TraitName;
+import net.citizensnpcs.npc.MinimumUpdateRate;
 import net.citizensnpcs.util.Util;
 
 /**
  * Persists a {@link Player} to follow while spawned. Optionally allows protecting of the player as well.
  */
+@MinimumUpdateRate
 @TraitName("followtrait")
 public class FollowTrait extends Trait {
     private Entity entity;
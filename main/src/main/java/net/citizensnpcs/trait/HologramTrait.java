@@ -49,6 +49,8 @@ import net.citizensnpcs.api.util.Messaging;
 import net.citizensnpcs.api.util.Placeholders;
 import net.citizensnpcs.api.util.SpigotUtil;
 import net.citizensnpcs.util.NMS;
+import net.citizensnpcs.util.PlaceholderCache;
+import net.citizensnpcs.util.RenderedTextCache;
 import net.citizensnpcs.util.Util;
 
 /**
@@ -322,7 +324,11 @@ public class HologramTrait extends Trait {
                 nameLine.render(offset);
             }
             if (updateName) {
-                nameLine.setText(npc.getRawName());
+                if (!npc.getRawName().equals(nameLine.text)) {
+                    nameLine.setText(npc.getRawName());
+                } else {
+                    nameLine.refresh();
+                }
             }
         }
         for (int i = 0; i < lines.size(); i++) {
@@ -337,7 +343,7 @@ public class HologramTrait extends Trait {
                 line.render(offset);
             }
             if (updateName) {
-                line.setText(line.text);
+                line.refresh();
             }
         }
     }
@@ -462,9 +468,11 @@ public class HologramTrait extends Trait {
 
     class HologramLine {
         Color backgroundColor = defaultBackgroundColor;
+        boolean dynamic;
         double mb, mt;
         boolean persist;
         HologramRenderer renderer;
+        boolean stale;
         String text;
         int ticks;
 
@@ -494,8 +502,23 @@ public class HologramTrait extends Trait {
             renderer.destroy();
         }
 
+        /**
+         * Updates the renderer text if it contains placeholders, or if the renderer has spawned new entities since the
+         * text was last set. Static text is otherwise only sent when it is changed through {@link #setText(String)}.
+         */
+        public void refresh() {
+            if (!dynamic && !stale)
+                return;
+            stale = false;
+            renderer.updateText(npc, text);
+        }
+
         public void render(Vector3d vector3d) {
+            boolean spawned = !renderer.getEntities().isEmpty();
             renderer.render(npc, vector3d);
+            if (!spawned && !renderer.getEntities().isEmpty()) {
+                stale = true;
+            }
         }
 
         public void setBackgroundColor(Color color) {
@@ -505,6 +528,8 @@ public class HologramTrait extends Trait {
 
         public void setText(String text) {
             this.text = text == null ? "" : text;
+            dynamic = Placeholders.containsPlaceholders(this.text);
+            stale = false;
             if (ITEM_MATCHER.matcher(text).find() && !(renderer instanceof ItemRenderer)) {
                 renderer.destroy();
                 mb = 0.21;
@@ -585,7 +610,9 @@ public class HologramTrait extends Trait {
         }
 
         /**
-         * Update the hologram text. Will be called first before {@link #render(NPC, Vector3d)}.
+         * Update the hologram text. Will be called first before {@link #render(NPC, Vector3d)}. Afterwards, it is
+         * called when the text changes, periodically if the text contains placeholders and once after the renderer
+         * spawns new entities.
          *
          * @param parent
          *            the <em>parent</em> NPC
@@ -688,7 +715,7 @@ public class HologramTrait extends Trait {
 
         @Override
         public void updateText(NPC npc, String text) {
-            this.text = Placeholders.replace(text, null, npc);
+            this.text = PlaceholderCache.getInstance().replace(text, npc);
         }
     }
 
@@ -750,7 +777,7 @@ public class HologramTrait extends Trait {
 
         @Override
         public void updateText(NPC npc, String text) {
-            this.text = Placeholders.replace(text, null, npc);
+            this.text = PlaceholderCache.getInstance().replace(text, npc);
         }
     }
 
@@ -760,6 +787,7 @@ public class HologramTrait extends Trait {
     // TODO: make view range part of hologram renderer?
     public abstract static class SingleEntityHologramRenderer implements HologramRenderer {
         protected NPC hologram;
+        private NPC lastUpdated;
         private NPCRegistry registry;
         private int spawnWaitTicks;
         protected String text;
@@ -811,6 +839,20 @@ public class HologramTrait extends Trait {
             this.registry = registry;
         }
 
+        /**
+         * Replaces placeholders in the raw text and stores the result in {@link #text}.
+         *
+         * @return whether the spawned hologram needs to be updated with the new text
+         */
+        protected boolean setReplacedText(NPC npc, String raw) {
+            String replaced = PlaceholderCache.getInstance().replace(raw, npc);
+            if (hologram != null && hologram == lastUpdated && replaced.equals(text))
+                return false;
+            text = replaced;
+            lastUpdated = hologram;
+            return hologram != null;
+        }
+
         public void setViewRange(int range) {
             this.viewRange = range;
         }
@@ -835,8 +877,7 @@ public class HologramTrait extends Trait {
 
         @Override
         public void updateText(NPC npc, String raw) {
-            this.text = Placeholders.replace(raw, null, npc);
-            if (hologram == null)
+            if (!setReplacedText(npc, raw))
                 return;
             hologram.setName(text);
             if (!Placeholders.containsPlaceholders(raw)) {
@@ -873,7 +914,8 @@ public class HologramTrait extends Trait {
         protected NPC createNPC(Entity base, String name, Vector3d offset) {
             NPC hologram = registry().createNPC(EntityType.TEXT_DISPLAY, "");
             hologram.data().set(NPC.Metadata.NAMEPLATE_VISIBLE, false);
-            hologram.data().set(NPC.Metadata.TEXT_DISPLAY_COMPONENT, Messaging.minecraftComponentFromRawMessage(name));
+            hologram.data().set(NPC.Metadata.TEXT_DISPLAY_COMPONENT,
+                    RenderedTextCache.getInstance().getComponent(name));
             return hologram;
         }
 
@@ -899,10 +941,10 @@ public class HologramTrait extends Trait {
 
         @Override
         public void updateText(NPC npc, String raw) {
-            this.text = Placeholders.replace(raw, null, npc);
-            if (hologram == null)
+            if (!setReplacedText(npc, raw))
                 return;
-            hologram.data().set(NPC.Metadata.TEXT_DISPLAY_COMPONENT, Messaging.minecraftComponentFromRawMessage(text));
+            hologram.data().set(NPC.Metadata.TEXT_DISPLAY_COMPONENT,
+                    RenderedTextCache.getInstance().getComponent(text));
         }
     }
 
@@ -3,7 +3,6 @@ package net.citizensnpcs.trait;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
@@ -18,7 +17,6 @@ import org.bukkit.potion.PotionEffectType;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 
 import net.citizensnpcs.Settings.Setting;
 import net.citizensnpcs.api.CitizensAPI;
@@ -28,6 +26,7 @@ import net.citizensnpcs.api.trait.Trait;
 import net.citizensnpcs.api.trait.TraitName;
 import net.citizensnpcs.api.util.DataKey;
 import net.citizensnpcs.trait.RotationTrait.PacketRotationSession;
+import net.citizensnpcs.util.LineOfSightCache;
 import net.citizensnpcs.util.NMS;
 import net.citizensnpcs.util.Util;
 
@@ -43,11 +42,13 @@ public class LookClose extends Trait {
     private boolean enabled = Setting.DEFAULT_LOOK_CLOSE.asBoolean();
     @Persist
     private boolean enableRandomLook = Setting.DEFAULT_RANDOM_LOOK_CLOSE.asBoolean();
+    private int generation;
     @Persist("headonly")
     private boolean headOnly;
     @Persist("linkedbody")
     private boolean linkedBody;
     private Player lookingAt;
+    private final List<Player> nearby = Lists.newArrayList();
     @Persist("perplayer")
     private boolean perPlayer;
     @Persist
@@ -61,7 +62,9 @@ public class LookClose extends Trait {
     private double range = Setting.DEFAULT_LOOK_CLOSE_RANGE.asDouble();
     @Persist("realisticlooking")
     private boolean realisticLooking = Setting.DEFAULT_REALISTIC_LOOKING.asBoolean();
-    private final Map<UUID, PacketRotationSession> sessions = Maps.newHashMapWithExpectedSize(4);
+    private int searchDelay;
+    private int searchInterval = 1;
+    private final Map<UUID, PlayerLookSession> sessions = Maps.newHashMapWithExpectedSize(4);
     private int t;
     @Persist("targetnpcs")
     private boolean targetNPCs;
@@ -73,9 +76,11 @@ public class LookClose extends Trait {
     private boolean canSee(Player player) {
         if (player == null || !player.isValid())
             return false;
-        return realisticLooking && npc.getEntity() instanceof LivingEntity
-                ? ((LivingEntity) npc.getEntity()).hasLineOfSight(player)
-                : true;
+        if (!realisticLooking || !(npc.getEntity() instanceof LivingEntity))
+            return true;
+        LineOfSightCache cache = LineOfSightCache.getInstance();
+        return cache != null ? cache.hasLineOfSight((LivingEntity) npc.getEntity(), player)
+                : ((LivingEntity) npc.getEntity()).hasLineOfSight(player);
     }
 
     /**
@@ -96,33 +101,15 @@ public class LookClose extends Trait {
     public void findNewTarget() {
         if (perPlayer) {
             lookingAt = null;
-            RotationTrait rotationTrait = npc.getOrAddTrait(RotationTrait.class);
-            Set<UUID> seen = Sets.newHashSet();
-            for (Player player : getNearbyPlayers()) {
-                PacketRotationSession session = sessions.get(player.getUniqueId());
-                if (session == null) {
-                    sessions.put(player.getUniqueId(),
-                            session = rotationTrait.createPacketSession(
-                                    rotationTrait.getGlobalParameters().clone().linkedBody(linkedBody)
-                                            .headOnly(headOnly).uuidFilter(player.getUniqueId()).persist(true)));
-                }
-                session.getSession().rotateToFace(player);
-                seen.add(player.getUniqueId());
+            if (--searchDelay <= 0) {
+                updatePlayerSessions();
             }
-            for (Iterator<UUID> iterator = sessions.keySet().iterator(); iterator.hasNext();) {
-                UUID uuid = iterator.next();
-                if (!seen.contains(uuid)) {
-                    rotationTrait.resetPlayerToPhysicalSession(uuid);
-                    iterator.remove();
-                }
+            for (PlayerLookSession session : sessions.values()) {
+                session.session.getSession().rotateToFace(session.player);
             }
             return;
         } else if (sessions.size() > 0) {
-            RotationTrait rotationTrait = npc.getOrAddTrait(RotationTrait.class);
-            for (UUID uuid : sessions.keySet()) {
-                rotationTrait.resetPlayerToPhysicalSession(uuid);
-            }
-            sessions.clear();
+            resetPlayerSessions();
         }
         if (lookingAt != null && !isValid(lookingAt)) {
             NPCLookCloseChangeTargetEvent event = new NPCLookCloseChangeTargetEvent(npc, lookingAt, null);
@@ -142,17 +129,22 @@ public class LookClose extends Trait {
                     t = randomLookDelay;
                 }
             }
-        } else {
+        } else if (--searchDelay <= 0) {
             double min = Double.MAX_VALUE;
             Location npcLoc = npc.getEntity().getLocation();
             for (Player player : getNearbyPlayers()) {
-                double dist = player.getLocation().distance(npcLoc);
+                double dist = player.getLocation().distanceSquared(npcLoc);
                 if (dist > min)
                     continue;
 
                 min = dist;
                 lookingAt = player;
             }
+            // back off while nobody is in range so idle NPCs don't search every tick
+            searchInterval = lookingAt == null
+                    ? Math.min(searchInterval * 2, Math.max(1, Setting.LOOK_CLOSE_MAX_SEARCH_INTERVAL.asTicks()))
+                    : 1;
+            searchDelay = searchInterval;
         }
         if (old != lookingAt) {
             NPCLookCloseChangeTargetEvent event = new NPCLookCloseChangeTargetEvent(npc, old, lookingAt);
@@ -164,7 +156,10 @@ public class LookClose extends Trait {
     }
 
     private List<Player> getNearbyPlayers() {
-        List<Player> options = Lists.newArrayList();
+        return getNearbyPlayers(Lists.newArrayList());
+    }
+
+    private List<Player> getNearbyPlayers(List<Player> options) {
         Location npcLoc = npc.getStoredLocation();
         Iterable<Player> nearby = targetNPCs
                 ? npc.getEntity().getNearbyEntities(range, range, range).stream()
@@ -233,7 +228,8 @@ public class LookClose extends Trait {
 
     private boolean isValid(Player entity) {
         return entity.isOnline() && entity.isValid() && entity.getWorld() == npc.getEntity().getWorld()
-                && entity.getLocation().distance(npc.getStoredLocation()) <= range && !isInvisible(entity);
+                && entity.getLocation().distanceSquared(npc.getStoredLocation()) <= range * range
+                && !isInvisible(entity);
     }
 
     @Override
@@ -250,6 +246,7 @@ public class LookClose extends Trait {
 
     @Override
     public void onDespawn() {
+        resetPlayerSessions();
         NPCLookCloseChangeTargetEvent event = new NPCLookCloseChangeTargetEvent(npc, lookingAt, null);
         Bukkit.getPluginManager().callEvent(event);
         if (event.getNewTarget() != null && isValid(event.getNewTarget())) {
@@ -259,6 +256,16 @@ public class LookClose extends Trait {
         }
     }
 
+    private void resetPlayerSessions() {
+        if (sessions.isEmpty())
+            return;
+        RotationTrait rotationTrait = npc.getOrAddTrait(RotationTrait.class);
+        for (UUID uuid : sessions.keySet()) {
+            rotationTrait.resetPlayerToPhysicalSession(uuid);
+        }
+        sessions.clear();
+    }
+
     private void randomLook() {
         float pitch = isEqual(randomPitchRange) ? randomPitchRange[0]
                 : Util.getFastRandom().doubles(randomPitchRange[0], randomPitchRange[1]).iterator().next().floatValue();
@@ -326,6 +333,7 @@ public class LookClose extends Trait {
 
     public void setPerPlayer(boolean perPlayer) {
         this.perPlayer = perPlayer;
+        searchDelay = 0;
     }
 
     /**
@@ -386,10 +394,60 @@ public class LookClose extends Trait {
         return "LookClose{" + enabled + "}";
     }
 
+    /**
+     * Creates a rotation session for each player that has entered range since the last search and retires the
+     * sessions of players that have left.
+     */
+    private void updatePlayerSessions() {
+        generation++;
+        getNearbyPlayers(nearby);
+        RotationTrait rotationTrait = null;
+        for (int i = 0; i < nearby.size(); i++) {
+            Player player = nearby.get(i);
+            PlayerLookSession session = sessions.get(player.getUniqueId());
+            if (session == null) {
+                if (rotationTrait == null) {
+                    rotationTrait = npc.getOrAddTrait(RotationTrait.class);
+                }
+                session = new PlayerLookSession(rotationTrait.createPacketSession(rotationTrait.getGlobalParameters()
+                        .clone().linkedBody(linkedBody).headOnly(headOnly).uuidFilter(player.getUniqueId())
+                        .persist(true)));
+                sessions.put(player.getUniqueId(), session);
+            }
+            session.player = player;
+            session.generation = generation;
+        }
+        nearby.clear();
+        for (Iterator<Map.Entry<UUID, PlayerLookSession>> itr = sessions.entrySet().iterator(); itr.hasNext();) {
+            Map.Entry<UUID, PlayerLookSession> entry = itr.next();
+            if (entry.getValue().generation == generation)
+                continue;
+            if (rotationTrait == null) {
+                rotationTrait = npc.getOrAddTrait(RotationTrait.class);
+            }
+            rotationTrait.resetPlayerToPhysicalSession(entry.getKey());
+            itr.remove();
+        }
+        searchInterval = sessions.isEmpty()
+                ? Math.min(searchInterval * 2, Math.max(1, Setting.LOOK_CLOSE_MAX_SEARCH_INTERVAL.asTicks()))
+                : 1;
+        searchDelay = searchInterval;
+    }
+
     public boolean useRealisticLooking() {
         return realisticLooking;
     }
 
+    private static class PlayerLookSession {
+        private int generation;
+        private Player player;
+        private final PacketRotationSession session;
+
+        public PlayerLookSession(PacketRotationSession session) {
+            this.session = session;
+        }
+    }
+
     private static boolean isEqual(float[] array) {
         return Math.abs(array[0] - array[1]) < 0.001;
     }
@@ -9,12 +9,14 @@ import net.citizensnpcs.api.npc.NPC;
 import net.citizensnpcs.api.persistence.Persist;
 import net.citizensnpcs.api.trait.Trait;
 import net.citizensnpcs.api.trait.TraitName;
+import net.citizensnpcs.npc.MinimumUpdateRate;
 import net.citizensnpcs.npc.ai.NPCHolder;
 import net.citizensnpcs.util.NMS;
 
 /**
  * Persists the NPC's mounted on entity, if any. Will attempt to respawn on mount.
  */
+@MinimumUpdateRate
 @TraitName("mounttrait")
 public class MountTrait extends Trait {
     private UUID currentMount;
@@ -1,10 +1,17 @@
 package net.citizensnpcs.trait;
 
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
 
+import com.google.common.collect.Maps;
+
+import net.citizensnpcs.Settings.Setting;
 import net.citizensnpcs.api.CitizensAPI;
 import net.citizensnpcs.api.LocationLookup.PerPlayerMetadata;
 import net.citizensnpcs.api.event.DespawnReason;
@@ -15,18 +22,31 @@ import net.citizensnpcs.api.trait.TraitName;
 import net.citizensnpcs.api.util.RemoveReason;
 import net.citizensnpcs.npc.EntityController;
 import net.citizensnpcs.util.EntityPacketTracker;
+import net.citizensnpcs.util.EntityPacketTracker.PacketAggregator;
 import net.citizensnpcs.util.NMS;
 import net.citizensnpcs.util.PlayerUpdateTask;
 
 @TraitName("packet")
 public class PacketNPC extends Trait {
+    private final Map<UUID, Player> linked = Maps.newHashMap();
+    private final Location location = new Location(null, 0, 0, 0);
+    private PacketAggregator aggregator;
     private EntityPacketTracker packetTracker;
     private boolean spawned = false;
+    private int updateDelay;
 
     public PacketNPC() {
         super("packet");
     }
 
+    // packets that are rewritten per player by ProtocolLibListener can't be shared
+    private boolean canShareEncoding() {
+        if (!Setting.PACKET_NPC_SHARED_ENCODING.asBoolean() || npc.data().has(NPC.Metadata.HOLOGRAM_RENDERER))
+            return false;
+        RotationTrait rotation = npc.getTraitNullable(RotationTrait.class);
+        return rotation == null || !rotation.hasPacketSessions();
+    }
+
     public EntityPacketTracker getPacketTracker() {
         return packetTracker;
     }
@@ -45,7 +65,8 @@ public class PacketNPC extends Trait {
 
     @Override
     public void onSpawn() {
-        packetTracker = NMS.createPacketTracker(npc.getEntity());
+        aggregator = new PacketAggregator();
+        packetTracker = NMS.createPacketTracker(npc.getEntity(), aggregator);
         spawned = true;
     }
 
@@ -54,13 +75,41 @@ public class PacketNPC extends Trait {
         if (!spawned)
             return;
         PerPlayerMetadata<Boolean> ppm = CitizensAPI.getLocationLookup().registerMetadata("packetnpc", null);
-        for (Player nearby : CitizensAPI.getLocationLookup().getNearbyPlayers(npc)) {
-            if (!ppm.has(nearby.getUniqueId(), npc.getUniqueId().toString())) {
-                packetTracker.link(nearby);
-                ppm.set(nearby.getUniqueId(), npc.getUniqueId().toString(), true);
+        npc.getEntity().getLocation(location);
+        double range = npc.data().get(NPC.Metadata.TRACKING_RANGE, Setting.PACKET_NPC_VIEW_DISTANCE.asInt());
+        // players are linked within the view distance and unlinked beyond it plus a margin so that players on the
+        // boundary don't cause repeated spawn and destroy packets
+        double unlinkRange = range + Setting.PACKET_NPC_UNLINK_MARGIN.asInt();
+        double nearest = Double.MAX_VALUE;
+        for (Iterator<Player> itr = linked.values().iterator(); itr.hasNext();) {
+            Player player = itr.next();
+            double dist = player.isOnline() && player.getWorld() == location.getWorld()
+                    ? player.getLocation().distanceSquared(location)
+                    : Double.MAX_VALUE;
+            if (dist > unlinkRange * unlinkRange) {
+                packetTracker.unlink(player);
+                ppm.remove(player.getUniqueId(), npc.getUniqueId().toString());
+                itr.remove();
+                continue;
             }
+            nearest = Math.min(nearest, dist);
+        }
+        for (Player nearby : CitizensAPI.getLocationLookup().getNearbyPlayers(location, range)) {
+            if (linked.containsKey(nearby.getUniqueId()) || !tryLink(nearby))
+                continue;
+            packetTracker.link(nearby);
+            ppm.set(nearby.getUniqueId(), npc.getUniqueId().toString(), true);
+            linked.put(nearby.getUniqueId(), nearby);
+            nearest = Math.min(nearest, nearby.getLocation().distanceSquared(location));
+        }
+        if (linked.isEmpty())
+            return;
+        // viewers that are far away get movement and metadata updates less often
+        if (nearest <= range * range / 4 || --updateDelay <= 0) {
+            aggregator.setSharedEncoding(canShareEncoding());
+            packetTracker.run();
+            updateDelay = Setting.PACKET_NPC_DISTANT_UPDATE_INTERVAL.asTicks();
         }
-        packetTracker.run();
     }
 
     public EntityController wrap(EntityController controller) {
@@ -86,9 +135,7 @@ public class PacketNPC extends Trait {
             base.die();
             if (!spawned)
                 return;
-            PlayerUpdateTask.deregisterPlayer(getBukkitEntity());
-            PerPlayerMetadata<Boolean> ppm = CitizensAPI.getLocationLookup().registerMetadata("packetnpc", null);
-            packetTracker.unlinkAll(player -> ppm.remove(player.getUniqueId(), npc.getUniqueId().toString()));
+            unlinkAll();
             spawned = false;
         }
 
@@ -101,9 +148,7 @@ public class PacketNPC extends Trait {
         public void remove() {
             if (!spawned)
                 return;
-            PlayerUpdateTask.deregisterPlayer(getBukkitEntity());
-            PerPlayerMetadata<Boolean> ppm = CitizensAPI.getLocationLookup().registerMetadata("packetnpc", null);
-            packetTracker.unlinkAll(player -> ppm.remove(player.getUniqueId(), npc.getUniqueId().toString()));
+            unlinkAll();
             base.remove();
             spawned = false;
         }
@@ -114,5 +159,35 @@ public class PacketNPC extends Trait {
             PlayerUpdateTask.registerPlayer(getBukkitEntity());
             return true;
         }
+
+        private void unlinkAll() {
+            PlayerUpdateTask.deregisterPlayer(getBukkitEntity());
+            PerPlayerMetadata<Boolean> ppm = CitizensAPI.getLocationLookup().registerMetadata("packetnpc", null);
+            packetTracker.unlinkAll(player -> ppm.remove(player.getUniqueId(), npc.getUniqueId().toString()));
+            linked.clear();
+        }
     }
-}
\ No newline at end of file
+
+    /**
+     * Spends one of the player's links for this tick, limiting how many spawn packets a single player receives when
+     * many packet NPCs come into range at once.
+     */
+    private static boolean tryLink(Player player) {
+        int max = Setting.PACKET_NPC_LINKS_PER_PLAYER_PER_TICK.asInt();
+        if (max < 0)
+            return true;
+        int tick = PlayerUpdateTask.getCurrentTick();
+        if (tick != LINK_TICK) {
+            LINKS_THIS_TICK.clear();
+            LINK_TICK = tick;
+        }
+        int used = LINKS_THIS_TICK.getOrDefault(player.getUniqueId(), 0);
+        if (used >= max)
+            return false;
+        LINKS_THIS_TICK.put(player.getUniqueId(), used + 1);
+        return true;
+    }
+
+    private static int LINK_TICK = -1;
+    private static final Map<UUID, Integer> LINKS_THIS_TICK = Maps.newHashMap();
+}
@@ -95,6 +95,10 @@ public class RotationTrait extends Trait {
         return globalSession;
     }
 
+    public boolean hasPacketSessions() {
+        return !packetSessions.isEmpty();
+    }
+
     public void resetPlayerToPhysicalSession(UUID uuid) {
         PacketRotationSession prs = packetSessionsByUUID.remove(uuid);
         if (prs == null || !npc.isSpawned())
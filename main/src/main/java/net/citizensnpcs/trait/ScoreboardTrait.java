@@ -1,7 +1,11 @@
 package net.citizensnpcs.trait;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
@@ -12,7 +16,6 @@ import org.bukkit.scoreboard.Team;
 import org.bukkit.scoreboard.Team.Option;
 import org.bukkit.scoreboard.Team.OptionStatus;
 
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
 
 import net.citizensnpcs.Settings.Setting;
@@ -35,33 +38,24 @@ public class ScoreboardTrait extends Trait {
     private String lastName;
     private final PerPlayerMetadata<Boolean> metadata;
     private ChatColor previousGlowingColor;
+    // players that have been sent the team, mapped to whether they have missed a change since
+    private final Map<UUID, Boolean> sentTo = new HashMap<>();
     @Persist
     private Set<String> tags = new HashSet<>();
 
     public ScoreboardTrait() {
         super("scoreboardtrait");
-        metadata = CitizensAPI.getLocationLookup().<Boolean> registerMetadata("scoreboard", (meta, event) -> {
-            for (NPC npc : Iterables.concat(CitizensAPI.getNPCRegistries())) {
-                ScoreboardTrait trait = npc.getTraitNullable(ScoreboardTrait.class);
-                if (trait == null)
-                    continue;
-
-                Team team = trait.getTeam();
-                if (team == null || meta.has(event.getPlayer().getUniqueId(), team.getName()))
-                    continue;
-
-                NMS.sendTeamPacket(event.getPlayer(), team, 0);
-                meta.set(event.getPlayer().getUniqueId(), team.getName(), true);
-            }
-        });
+        metadata = CitizensAPI.getLocationLookup().<Boolean> registerMetadata("scoreboard", null);
     }
 
     private void clearClientTeams(Team team) {
-        for (Player player : Bukkit.getOnlinePlayers()) {
-            if (metadata.remove(player.getUniqueId(), team.getName())) {
+        for (UUID uuid : sentTo.keySet()) {
+            Player player = Bukkit.getPlayer(uuid);
+            if (metadata.remove(uuid, team.getName()) && player != null) {
                 NMS.sendTeamPacket(player, team, 1);
             }
         }
+        sentTo.clear();
     }
 
     public void createTeam(String entityName) {
@@ -125,6 +119,17 @@ public class ScoreboardTrait extends Trait {
         }, reason == DespawnReason.DEATH && npc.getEntity() instanceof LivingEntity ? 20 : 2);
     }
 
+    /**
+     * Sends the team to a player that is about to start tracking the NPC, or resends it if it changed while the player
+     * was not tracking the NPC.
+     */
+    public void onSeenByPlayer(Player player) {
+        Team team = getTeam();
+        if (team == null || !Setting.USE_SCOREBOARD_TEAMS.asBoolean())
+            return;
+        sendTeam(player, team);
+    }
+
     @Override
     public void onRemove() {
         onDespawn(DespawnReason.REMOVAL);
@@ -169,10 +174,7 @@ public class ScoreboardTrait extends Trait {
             return;
 
         if (!Setting.USE_SCOREBOARD_TEAMS.asBoolean()) {
-            for (Player player : Bukkit.getOnlinePlayers()) {
-                metadata.remove(player.getUniqueId(), team.getName());
-                NMS.sendTeamPacket(player, team, 1);
-            }
+            clearClientTeams(team);
             team.unregister();
             npc.data().remove(NPC.Metadata.SCOREBOARD_FAKE_TEAM_NAME);
             return;
@@ -236,20 +238,39 @@ public class ScoreboardTrait extends Trait {
         }
         if (!changed)
             return;
-        for (Player player : Bukkit.getOnlinePlayers()) {
-            if (player.hasMetadata("NPC"))
-                continue;
-
-            if (metadata.has(player.getUniqueId(), team.getName())) {
-                NMS.sendTeamPacket(player, team, 2);
+        // players that aren't tracking the NPC are brought up to date when they next see it
+        for (Iterator<Map.Entry<UUID, Boolean>> itr = sentTo.entrySet().iterator(); itr.hasNext();) {
+            Map.Entry<UUID, Boolean> entry = itr.next();
+            if (Bukkit.getPlayer(entry.getKey()) == null) {
+                itr.remove();
             } else {
-                NMS.sendTeamPacket(player, team, 0);
-                metadata.set(player.getUniqueId(), team.getName(), true);
+                entry.setValue(true);
+            }
+        }
+        if (npc.isSpawned()) {
+            for (Player player : NMS.getViewingPlayers(npc.getEntity())) {
+                sendTeam(player, team);
             }
         }
         changed = false;
     }
 
+    private void sendTeam(Player player, Team team) {
+        if (player.hasMetadata("NPC"))
+            return;
+        Boolean stale = sentTo.get(player.getUniqueId());
+        if (stale != null && metadata.has(player.getUniqueId(), team.getName())) {
+            if (stale) {
+                NMS.sendTeamPacket(player, team, 2);
+                sentTo.put(player.getUniqueId(), false);
+            }
+            return;
+        }
+        NMS.sendTeamPacket(player, team, metadata.has(player.getUniqueId(), team.getName()) ? 2 : 0);
+        metadata.set(player.getUniqueId(), team.getName(), true);
+        sentTo.put(player.getUniqueId(), false);
+    }
+
     private static boolean SUPPORT_COLLIDABLE_SETOPTION = true;
     private static boolean SUPPORT_GLOWING_COLOR = true;
     private static boolean SUPPORT_TAGS = true;
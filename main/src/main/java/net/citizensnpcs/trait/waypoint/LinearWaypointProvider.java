@@ -3,8 +3,6 @@ package net.citizensnpcs.trait.waypoint;
 import java.util.AbstractList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Objects;
 
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
@@ -22,7 +20,6 @@ import org.bukkit.util.Vector;
 
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 
 import net.citizensnpcs.Settings.Setting;
 import net.citizensnpcs.api.CitizensAPI;
@@ -41,6 +38,7 @@ import net.citizensnpcs.api.persistence.PersistenceLoader;
 import net.citizensnpcs.api.util.DataKey;
 import net.citizensnpcs.api.util.Messaging;
 import net.citizensnpcs.editor.Editor;
+import net.citizensnpcs.npc.ai.PathCache;
 import net.citizensnpcs.trait.waypoint.WaypointProvider.EnumerableWaypointProvider;
 import net.citizensnpcs.trait.waypoint.triggers.TriggerEditPrompt;
 import net.citizensnpcs.util.Messages;
@@ -50,7 +48,6 @@ import net.citizensnpcs.util.Util;
  * An ordered list of {@link Waypoint}s to walk between.
  */
 public class LinearWaypointProvider implements EnumerableWaypointProvider {
-    private final Map<SourceDestinationPair, Iterable<Vector>> cachedPaths = Maps.newHashMap();
     @Persist
     private boolean cachePaths = Setting.DEFAULT_CACHE_WAYPOINT_PATHS.asBoolean();
     private LinearWaypointGoal currentGoal;
@@ -100,7 +97,6 @@ public class LinearWaypointProvider implements EnumerableWaypointProvider {
             return null;
         } else if (args.hasFlag('c')) {
             waypoints.clear();
-            cachedPaths.clear();
             return null;
         } else if (args.hasFlag('l')) {
             if (waypoints.size() > 0) {
@@ -609,12 +605,15 @@ public class LinearWaypointProvider implements EnumerableWaypointProvider {
                 return false;
 
             currentDestination = next;
-            if (cachePaths) {
-                SourceDestinationPair key = new SourceDestinationPair(npcLoc, currentDestination);
-                Iterable<Vector> cached = cachedPaths.get(key);
+            Location from = npcLoc.clone();
+            PathCache cache = cachePaths ? PathCache.getInstance() : null;
+            String signature = cache != null ? PathCache.signature(npc, getNavigator().getDefaultParameters())
+                    : null;
+            if (cache != null) {
+                List<Vector> cached = cache.get(from, currentDestination.getLocation(), signature);
                 if (cached != null) {
-                    if (Iterables.size(cached) == 0 || !key.verify(npcLoc.getWorld(), cached)) {
-                        cachedPaths.remove(key);
+                    if (!verify(from.getWorld(), cached)) {
+                        cache.remove(from, currentDestination.getLocation(), signature);
                     } else {
                         getNavigator().setTarget(cached);
                     }
@@ -628,10 +627,10 @@ public class LinearWaypointProvider implements EnumerableWaypointProvider {
                 if (npc.isSpawned() && currentDestination != null
                         && npc.getStoredLocation().distance(currentDestination.getLocation()) <= margin + 1) {
                     currentDestination.onReach(npc);
-                    if (cachePaths && cancelReason == null) {
+                    if (cache != null && cancelReason == null) {
                         Iterable<Vector> path = getNavigator().getPathStrategy().getPath();
-                        if (Iterables.size(path) > 0) {
-                            cachedPaths.put(new SourceDestinationPair(npcLoc, currentDestination), path);
+                        if (path != null && Iterables.size(path) > 0) {
+                            cache.put(from, currentDestination.getLocation(), signature, path);
                         }
                     }
                 }
@@ -642,47 +641,12 @@ public class LinearWaypointProvider implements EnumerableWaypointProvider {
         }
     }
 
-    private static class SourceDestinationPair {
-        private final Vector from;
-        private final Vector to;
-
-        public SourceDestinationPair(Location npcLoc, Waypoint to) {
-            this(new Vector(npcLoc.getBlockX(), npcLoc.getBlockY(), npcLoc.getBlockZ()), to.getLocation().toVector());
-        }
-
-        public SourceDestinationPair(Vector from, Vector to) {
-            this.from = from;
-            this.to = to;
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj)
-                return true;
-
-            if (obj == null || getClass() != obj.getClass())
-                return false;
-
-            SourceDestinationPair other = (SourceDestinationPair) obj;
-            if (!Objects.equals(from, other.from) || !Objects.equals(to, other.to))
+    private static boolean verify(World world, Iterable<Vector> cached) {
+        for (Vector vector : cached) {
+            if (!MinecraftBlockExaminer
+                    .canStandOn(world.getBlockAt(vector.getBlockX(), vector.getBlockY() - 1, vector.getBlockZ())))
                 return false;
-            return true;
-        }
-
-        @Override
-        public int hashCode() {
-            int prime = 31;
-            int result = prime + (from == null ? 0 : from.hashCode());
-            return prime * result + (to == null ? 0 : to.hashCode());
-        }
-
-        public boolean verify(World world, Iterable<Vector> cached) {
-            for (Vector vector : cached) {
-                if (!MinecraftBlockExaminer
-                        .canStandOn(world.getBlockAt(vector.getBlockX(), vector.getBlockY() - 1, vector.getBlockZ())))
-                    return false;
-            }
-            return true;
         }
+        return true;
     }
 }
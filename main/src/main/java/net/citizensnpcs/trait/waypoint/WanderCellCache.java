@@ -0,0 +1,218 @@
+package net.citizensnpcs.trait.waypoint;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.world.ChunkLoadEvent;
+
+import ch.ethz.globis.phtree.PhTreeSolid;
+import net.citizensnpcs.Citizens;
+import net.citizensnpcs.api.CitizensAPI;
+import net.citizensnpcs.api.ai.event.CancelReason;
+import net.citizensnpcs.api.ai.event.NavigationCancelEvent;
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.npc.ai.BlockChangeListener;
+import net.citizensnpcs.util.Util;
+
+/**
+ * Shares the standable cells of wander regions between NPCs. Each distinct list of region boxes is scanned once and
+ * kept as a tree of single cells, which {@link WanderWaypointProvider} hands to its wander goal instead of the region
+ * boxes. Block changes and chunk loads only rescan the affected cells. Cells that a wandering NPC got stuck trying to
+ * reach are dropped until a block next to them changes.
+ */
+public class WanderCellCache extends BlockChangeListener {
+    private final Map<List<Box>, Cells> regions = new HashMap<>();
+
+    /**
+     * Returns the shared cells for the boxes, scanning them if no other NPC uses the same boxes. Each call must be
+     * matched by a call to {@link #release(Cells)}.
+     */
+    public Cells acquire(List<Box> boxes) {
+        Cells cells = regions.get(boxes);
+        if (cells == null) {
+            regions.put(boxes, cells = new Cells(boxes));
+            cells.scan();
+        }
+        cells.references++;
+        return cells;
+    }
+
+    @Override
+    protected void blockChanged(Block block) {
+        if (regions.isEmpty())
+            return;
+        // the cell above stands on the block and the cell below needs it for headroom
+        for (Cells cells : regions.values()) {
+            for (int dy = -1; dy <= 1; dy++) {
+                cells.update(block.getWorld(), block.getX(), block.getY() + dy, block.getZ());
+            }
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkLoad(ChunkLoadEvent event) {
+        if (regions.isEmpty())
+            return;
+        Chunk chunk = event.getChunk();
+        int minX = chunk.getX() << 4, minZ = chunk.getZ() << 4;
+        for (Cells cells : regions.values()) {
+            if (cells.tree == null)
+                continue;
+            for (Box box : cells.boxes) {
+                if (box.world.equals(event.getWorld().getUID())) {
+                    cells.scan(event.getWorld(), box, Math.max(box.lower[0], minX), Math.min(box.upper[0], minX + 15),
+                            Math.max(box.lower[2], minZ), Math.min(box.upper[2], minZ + 15));
+                }
+            }
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onNavigationCancel(NavigationCancelEvent event) {
+        if (event.getCancelReason() != CancelReason.STUCK || regions.isEmpty())
+            return;
+        NPC npc = event.getNavigator().getNPC();
+        Waypoints waypoints = npc.getTraitNullable(Waypoints.class);
+        if (waypoints == null || !(waypoints.getCurrentProvider() instanceof WanderWaypointProvider))
+            return;
+        Cells cells = ((WanderWaypointProvider) waypoints.getCurrentProvider()).getCells();
+        Location target = event.getNavigator().getTargetAsLocation();
+        if (cells == null || cells.tree == null || target == null)
+            return;
+        long[] point = { target.getBlockX(), target.getBlockY(), target.getBlockZ() };
+        cells.tree.remove(point, point);
+    }
+
+    public void release(Cells cells) {
+        if (--cells.references <= 0) {
+            regions.remove(cells.boxes);
+        }
+    }
+
+    @Override
+    protected void worldUnloaded(World world) {
+        // cells in the world are rescanned as its chunks load again
+    }
+
+    /**
+     * An inclusive box of block positions in a world.
+     */
+    public static class Box {
+        private final long[] lower;
+        private final long[] upper;
+        private final UUID world;
+
+        public Box(UUID world, long[] lower, long[] upper) {
+            this.world = world;
+            this.lower = lower;
+            this.upper = upper;
+        }
+
+        private boolean contains(UUID world, int x, int y, int z) {
+            return this.world.equals(world) && x >= lower[0] && x <= upper[0] && y >= lower[1] && y <= upper[1]
+                    && z >= lower[2] && z <= upper[2];
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null || getClass() != obj.getClass())
+                return false;
+            Box other = (Box) obj;
+            return world.equals(other.world) && Arrays.equals(lower, other.lower) && Arrays.equals(upper, other.upper);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * world.hashCode() + Arrays.hashCode(lower)) + Arrays.hashCode(upper);
+        }
+
+        private long volume() {
+            return (upper[0] - lower[0] + 1) * (upper[1] - lower[1] + 1) * (upper[2] - lower[2] + 1);
+        }
+    }
+
+    public static class Cells {
+        private final List<Box> boxes;
+        private int references;
+        private PhTreeSolid<Boolean> tree;
+
+        private Cells(List<Box> boxes) {
+            this.boxes = boxes;
+        }
+
+        /**
+         * @return a tree of the standable cells as single block boxes, or null if the boxes were too large to scan
+         */
+        public PhTreeSolid<Boolean> getTree() {
+            return tree;
+        }
+
+        private void scan() {
+            long volume = 0;
+            for (Box box : boxes) {
+                volume += box.volume();
+            }
+            if (volume > MAX_VOLUME)
+                return;
+            tree = PhTreeSolid.create(3);
+            for (Box box : boxes) {
+                World world = Bukkit.getWorld(box.world);
+                if (world != null) {
+                    scan(world, box, box.lower[0], box.upper[0], box.lower[2], box.upper[2]);
+                }
+            }
+        }
+
+        private void scan(World world, Box box, long minX, long maxX, long minZ, long maxZ) {
+            for (int x = (int) minX; x <= maxX; x++) {
+                for (int z = (int) minZ; z <= maxZ; z++) {
+                    if (!world.isChunkLoaded(x >> 4, z >> 4))
+                        continue;
+                    for (int y = (int) box.lower[1]; y <= box.upper[1]; y++) {
+                        update(world, x, y, z);
+                    }
+                }
+            }
+        }
+
+        private void update(World world, int x, int y, int z) {
+            if (tree == null)
+                return;
+            boolean inside = false;
+            for (Box box : boxes) {
+                inside |= box.contains(world.getUID(), x, y, z);
+            }
+            if (!inside)
+                return;
+            long[] point = { x, y, z };
+            if (Util.isStandable(world, x, y, z)) {
+                tree.put(point, point, true);
+            } else {
+                tree.remove(point, point);
+            }
+        }
+    }
+
+    /**
+     * @return the shared cache, or null if Citizens is not enabled
+     */
+    public static WanderCellCache getInstance() {
+        if (!CitizensAPI.hasImplementation() || !(CitizensAPI.getPlugin() instanceof Citizens))
+            return null;
+        return ((Citizens) CitizensAPI.getPlugin()).getWanderCellCache();
+    }
+
+    private static final long MAX_VOLUME = 1 << 17;
+}
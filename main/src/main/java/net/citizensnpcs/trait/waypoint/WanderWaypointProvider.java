@@ -38,6 +38,7 @@ import net.citizensnpcs.util.Util;
  * defined by a list of boxes.
  */
 public class WanderWaypointProvider implements WaypointProvider {
+    private WanderCellCache.Cells cells;
     private WanderGoal currentGoal;
     @Persist
     private int delay = -1;
@@ -58,12 +59,20 @@ public class WanderWaypointProvider implements WaypointProvider {
 
     public void addRegionCentre(Location centre) {
         regionCentres.add(centre);
-        recalculateTree();
+        addToTree(centre);
     }
 
     public void addRegionCentres(Collection<Location> centre) {
         regionCentres.addAll(centre);
-        recalculateTree();
+        for (Location loc : centre) {
+            addToTree(loc);
+        }
+    }
+
+    private void addToTree(Location centre) {
+        long[][] box = getBox(centre);
+        tree.put(box[0], box[1], true);
+        releaseCells();
     }
 
     @Override
@@ -183,7 +192,7 @@ public class WanderWaypointProvider implements WaypointProvider {
                         entity.setMetadata("wandermarker", new FixedMetadataValue(CitizensAPI.getPlugin(), at));
                         Messaging.sendTr(sender, Messages.WANDER_WAYPOINTS_ADDED_REGION, formatLoc(at),
                                 regionCentres.size());
-                        recalculateTree();
+                        addToTree(at);
                     }
                 }
             }
@@ -193,17 +202,27 @@ public class WanderWaypointProvider implements WaypointProvider {
                 if (!sender.equals(event.getPlayer()) || !editingRegions || Util.isOffHand(event)
                         || !event.getRightClicked().hasMetadata("wandermarker"))
                     return;
-                regionCentres.remove(event.getRightClicked().getMetadata("wandermarker").get(0).value());
-                markers.removeMarker((Location) event.getRightClicked().getMetadata("wandermarker").get(0).value());
-                Messaging.sendTr(sender, Messages.WANDER_WAYPOINTS_REMOVED_REGION,
-                        formatLoc((Location) event.getRightClicked().getMetadata("wandermarker").get(0).value()),
+                Location centre = (Location) event.getRightClicked().getMetadata("wandermarker").get(0).value();
+                regionCentres.remove(centre);
+                markers.removeMarker(centre);
+                Messaging.sendTr(sender, Messages.WANDER_WAYPOINTS_REMOVED_REGION, formatLoc(centre),
                         regionCentres.size());
-                recalculateTree();
+                removeFromTree(centre);
             }
 
         };
     }
 
+    private long[][] getBox(Location centre) {
+        return new long[][] {
+                { centre.getBlockX() - xrange, centre.getBlockY() - yrange, centre.getBlockZ() - xrange },
+                { centre.getBlockX() + xrange, centre.getBlockY() + yrange, centre.getBlockZ() + xrange } };
+    }
+
+    WanderCellCache.Cells getCells() {
+        return cells;
+    }
+
     public int getDelay() {
         return delay;
     }
@@ -212,6 +231,29 @@ public class WanderWaypointProvider implements WaypointProvider {
         return new RecalculateList();
     }
 
+    /**
+     * @return the standable cells of the region if they are available, otherwise the region boxes
+     */
+    private PhTreeSolid<Boolean> getTree() {
+        if (regionCentres.isEmpty())
+            return null;
+        if (cells == null) {
+            WanderCellCache cache = WanderCellCache.getInstance();
+            if (cache != null) {
+                List<WanderCellCache.Box> boxes = Lists.newArrayList();
+                for (Location centre : regionCentres) {
+                    if (centre.getWorld() == null)
+                        continue;
+                    long[][] box = getBox(centre);
+                    boxes.add(new WanderCellCache.Box(centre.getWorld().getUID(), box[0], box[1]));
+                }
+                cells = cache.acquire(boxes);
+            }
+        }
+        PhTreeSolid<Boolean> standable = cells == null ? null : cells.getTree();
+        return standable != null && standable.size() > 0 ? standable : tree;
+    }
+
     public Object getWorldGuardRegion() {
         if (worldguardRegion == null)
             return null;
@@ -254,6 +296,7 @@ public class WanderWaypointProvider implements WaypointProvider {
     @Override
     public void onRemove() {
         worldguardRegionCache = null;
+        releaseCells();
         if (currentGoal == null)
             return;
         currentGoal.pause();
@@ -266,7 +309,7 @@ public class WanderWaypointProvider implements WaypointProvider {
         this.npc = npc;
         if (currentGoal == null) {
             currentGoal = WanderGoal.builder(npc).xrange(xrange).yrange(yrange).pathfind(pathfind)
-                    .tree(() -> regionCentres.isEmpty() ? null : tree).delay(delay)
+                    .tree(this::getTree).delay(delay)
                     .worldguardRegion(this::getWorldGuardRegion).build();
             if (paused) {
                 currentGoal.pause();
@@ -284,20 +327,46 @@ public class WanderWaypointProvider implements WaypointProvider {
     private void recalculateTree() {
         tree = PhTreeSolid.create(3);
         for (Location loc : regionCentres) {
-            long[] lower = { loc.getBlockX() - xrange, loc.getBlockY() - yrange, loc.getBlockZ() - xrange };
-            long[] upper = { loc.getBlockX() + xrange, loc.getBlockY() + yrange, loc.getBlockZ() + xrange };
-            tree.put(lower, upper, true);
+            long[][] box = getBox(loc);
+            tree.put(box[0], box[1], true);
+        }
+        releaseCells();
+    }
+
+    private void releaseCells() {
+        if (cells == null)
+            return;
+        WanderCellCache cache = WanderCellCache.getInstance();
+        if (cache != null) {
+            cache.release(cells);
+        }
+        cells = null;
+    }
+
+    private void removeFromTree(Location centre) {
+        for (Location other : regionCentres) {
+            // another centre in the same block still covers the box
+            if (other.getBlockX() == centre.getBlockX() && other.getBlockY() == centre.getBlockY()
+                    && other.getBlockZ() == centre.getBlockZ()) {
+                releaseCells();
+                return;
+            }
         }
+        long[][] box = getBox(centre);
+        tree.remove(box[0], box[1]);
+        releaseCells();
     }
 
     public void removeRegionCentre(Location centre) {
         regionCentres.remove(centre);
-        recalculateTree();
+        removeFromTree(centre);
     }
 
     public void removeRegionCentres(Collection<Location> centre) {
         regionCentres.removeAll(centre);
-        recalculateTree();
+        for (Location loc : centre) {
+            removeFromTree(loc);
+        }
     }
 
     @Override
@@ -353,7 +422,7 @@ public class WanderWaypointProvider implements WaypointProvider {
         @Override
         public boolean add(Location loc) {
             boolean val = super.add(loc);
-            recalculateTree();
+            addToTree(loc);
             return val;
         }
 
@@ -365,7 +434,7 @@ public class WanderWaypointProvider implements WaypointProvider {
         @Override
         public Location remove(int idx) {
             Location val = super.remove(idx);
-            recalculateTree();
+            removeFromTree(val);
             return val;
         }
 
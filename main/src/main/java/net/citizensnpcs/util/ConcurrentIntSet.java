@@ -0,0 +1,49 @@
+package net.citizensnpcs.util;
+
+import java.util.Arrays;
+
+/**
+ * A set of primitive <code>int</code>s backed by a sorted copy-on-write array. Lookups are lock-free binary searches
+ * that can run on any thread, while writes copy the array and are expected to be much rarer than reads.
+ */
+public class ConcurrentIntSet {
+    private volatile int[] values = new int[0];
+
+    public synchronized boolean add(int value) {
+        int[] current = values;
+        int idx = Arrays.binarySearch(current, value);
+        if (idx >= 0)
+            return false;
+        int insert = -idx - 1;
+        int[] next = new int[current.length + 1];
+        System.arraycopy(current, 0, next, 0, insert);
+        next[insert] = value;
+        System.arraycopy(current, insert, next, insert + 1, current.length - insert);
+        values = next;
+        return true;
+    }
+
+    public synchronized void clear() {
+        values = new int[0];
+    }
+
+    public boolean contains(int value) {
+        return Arrays.binarySearch(values, value) >= 0;
+    }
+
+    public synchronized boolean remove(int value) {
+        int[] current = values;
+        int idx = Arrays.binarySearch(current, value);
+        if (idx < 0)
+            return false;
+        int[] next = new int[current.length - 1];
+        System.arraycopy(current, 0, next, 0, idx);
+        System.arraycopy(current, idx + 1, next, idx, current.length - idx - 1);
+        values = next;
+        return true;
+    }
+
+    public int size() {
+        return values.length;
+    }
+}
@@ -1,6 +1,7 @@
 package net.citizensnpcs.util;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
@@ -9,6 +10,7 @@ import java.util.function.Consumer;
 import org.bukkit.entity.Player;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 public interface EntityPacketTracker extends Runnable {
@@ -21,13 +23,22 @@ public interface EntityPacketTracker extends Runnable {
     public static class PacketAggregator {
         private final Set<PlayerConnection> connections = Sets.newHashSet();
         private List<Object> packets;
+        private boolean sharedEncoding;
 
         public void add(UUID uuid, Consumer<Object> conn) {
-            connections.add(new PlayerConnection(uuid, conn));
+            connections.add(new PlayerConnection(uuid, null, conn));
+        }
+
+        /**
+         * Adds a connection that may receive packets encoded once for every connection with the same encoding, see
+         * {@link #setSharedEncoding(boolean)}.
+         */
+        public void add(UUID uuid, Player player, Consumer<Object> conn) {
+            connections.add(new PlayerConnection(uuid, player, conn));
         }
 
         public void removeConnection(UUID uuid) {
-            connections.remove(new PlayerConnection(uuid, null));
+            connections.remove(new PlayerConnection(uuid, null, null));
         }
 
         public void send(Object packet) {
@@ -35,11 +46,53 @@ public interface EntityPacketTracker extends Runnable {
                 packets.add(packet);
                 return;
             }
+            sendToAll(packet);
+        }
+
+        private void sendToAll(Object packet) {
+            if (!sharedEncoding || connections.size() < 2) {
+                for (PlayerConnection conn : connections) {
+                    conn.conn.accept(packet);
+                }
+                return;
+            }
+            // connections can change protocol or encoder at any time, so group them again for every packet
+            Map<Object, List<PlayerConnection>> byEncoding = Maps.newHashMapWithExpectedSize(2);
             for (PlayerConnection conn : connections) {
-                conn.conn.accept(packet);
+                Object key = conn.player == null ? null : NMS.getPacketEncodingKey(conn.player);
+                if (key == null) {
+                    conn.conn.accept(packet);
+                    continue;
+                }
+                byEncoding.computeIfAbsent(key, k -> Lists.newArrayList()).add(conn);
+            }
+            for (Map.Entry<Object, List<PlayerConnection>> group : byEncoding.entrySet()) {
+                List<PlayerConnection> conns = group.getValue();
+                List<Object> encoded = conns.size() > 1 ? NMS.encodePacket(conns.get(0).player, packet) : null;
+                if (encoded == null) {
+                    for (PlayerConnection conn : conns) {
+                        conn.conn.accept(packet);
+                    }
+                    continue;
+                }
+                for (PlayerConnection conn : conns) {
+                    if (!NMS.sendEncodedPackets(conn.player, group.getKey(), encoded)) {
+                        conn.conn.accept(packet);
+                    }
+                }
+                NMS.releaseEncodedPackets(encoded);
             }
         }
 
+        /**
+         * Sets whether to encode each packet once and write the encoded bytes to all connections that share the same
+         * protocol encoding. Encoded packets bypass packet listeners such as ProtocolLib, so this must stay disabled
+         * for entities whose packets are rewritten per player.
+         */
+        public void setSharedEncoding(boolean sharedEncoding) {
+            this.sharedEncoding = sharedEncoding;
+        }
+
         public void startBundling() {
             packets = Lists.newArrayList();
         }
@@ -48,18 +101,18 @@ public interface EntityPacketTracker extends Runnable {
             Iterable<Object> packets = NMS.createBundlePacket(this.packets);
             this.packets = null;
             for (Object packet : packets) {
-                for (PlayerConnection conn : connections) {
-                    conn.conn.accept(packet);
-                }
+                sendToAll(packet);
             }
         }
 
         private static class PlayerConnection {
             Consumer<Object> conn;
+            Player player;
             UUID uuid;
 
-            public PlayerConnection(UUID uuid, Consumer<Object> conn) {
+            public PlayerConnection(UUID uuid, Player player, Consumer<Object> conn) {
                 this.uuid = uuid;
+                this.player = player;
                 this.conn = conn;
             }
 
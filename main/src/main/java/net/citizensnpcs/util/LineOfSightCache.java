@@ -0,0 +1,78 @@
+package net.citizensnpcs.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.LivingEntity;
+
+import net.citizensnpcs.Citizens;
+import net.citizensnpcs.Settings.Setting;
+import net.citizensnpcs.api.CitizensAPI;
+
+/**
+ * Caches {@link LivingEntity#hasLineOfSight(Entity)} results by the entity IDs of the viewer and target. A result is
+ * reused until either entity's eye moves into a different block or the configured maximum age passes.
+ */
+public class LineOfSightCache {
+    private final Map<Long, Entry> entries = new HashMap<>();
+    private long lastPurge;
+    private final Location viewerLoc = new Location(null, 0, 0, 0);
+    private final Location targetLoc = new Location(null, 0, 0, 0);
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public boolean hasLineOfSight(LivingEntity viewer, Entity target) {
+        long maxAge = Setting.LOOK_CLOSE_LINE_OF_SIGHT_CACHE_DURATION.asTicks() * 50L;
+        if (maxAge <= 0)
+            return viewer.hasLineOfSight(target);
+        long now = System.currentTimeMillis();
+        if (now - lastPurge > maxAge) {
+            entries.values().removeIf(entry -> now - entry.time > maxAge);
+            lastPurge = now;
+        }
+        long viewerBlock = eyeBlockKey(viewer, viewerLoc);
+        long targetBlock = eyeBlockKey(target, targetLoc);
+        long key = (long) viewer.getEntityId() << 32 | target.getEntityId() & 0xFFFFFFFFL;
+        Entry entry = entries.get(key);
+        if (entry != null && entry.viewerBlock == viewerBlock && entry.targetBlock == targetBlock
+                && now - entry.time <= maxAge)
+            return entry.result;
+        if (entry == null) {
+            entries.put(key, entry = new Entry());
+        }
+        entry.result = viewer.hasLineOfSight(target);
+        entry.time = now;
+        entry.viewerBlock = viewerBlock;
+        entry.targetBlock = targetBlock;
+        return entry.result;
+    }
+
+    private static class Entry {
+        private boolean result;
+        private long targetBlock;
+        private long time;
+        private long viewerBlock;
+    }
+
+    private static long eyeBlockKey(Entity entity, Location reuse) {
+        entity.getLocation(reuse);
+        int x = reuse.getBlockX();
+        int y = (int) Math.floor(reuse.getY()
+                + (entity instanceof LivingEntity ? ((LivingEntity) entity).getEyeHeight() : 0));
+        int z = reuse.getBlockZ();
+        return ((long) x & 0x3FFFFFF) << 38 | ((long) z & 0x3FFFFFF) << 12 | y & 0xFFF;
+    }
+
+    /**
+     * @return the shared cache, or null if Citizens is not enabled
+     */
+    public static LineOfSightCache getInstance() {
+        if (!CitizensAPI.hasImplementation() || !(CitizensAPI.getPlugin() instanceof Citizens))
+            return null;
+        return ((Citizens) CitizensAPI.getPlugin()).getLineOfSightCache();
+    }
+}
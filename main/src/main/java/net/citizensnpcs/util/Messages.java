@@ -327,6 +327,11 @@ public class Messages {
     public static final String PARROT_VARIANT_SET = "citizens.commands.npc.parrot.variant-set";
     public static final String PASSIVE_SET = "citizens.commands.npc.passive.set";
     public static final String PASSIVE_UNSET = "citizens.commands.npc.passive.unset";
+    public static final String PATHFINDING_METRICS_DISABLED = "citizens.commands.citizens.pathmetrics.disabled";
+    public static final String PATHFINDING_METRICS_EXPORTED = "citizens.commands.citizens.pathmetrics.exported";
+    public static final String PATHFINDING_METRICS_REPLAYED = "citizens.commands.citizens.pathmetrics.replayed";
+    public static final String PATHFINDING_METRICS_REPLAYING = "citizens.commands.citizens.pathmetrics.replaying";
+    public static final String PATHFINDING_METRICS_RESET = "citizens.commands.citizens.pathmetrics.reset";
     public static final String PATHFINDING_OPTIONS_ATTACK_RANGE_SET = "citizens.commands.npc.pathopt.attack-range-set";
     public static final String PATHFINDING_OPTIONS_AVOID_WATER_SET = "citizens.commands.npc.pathopt.avoid-water-set";
     public static final String PATHFINDING_OPTIONS_AVOID_WATER_UNSET = "citizens.commands.npc.pathopt.avoid-water-unset";
@@ -187,6 +187,10 @@ public class NMS {
         return BRIDGE.createPacketTracker(entity, agg);
     }
 
+    public static List<Object> encodePacket(Player player, Object packet) {
+        return BRIDGE.encodePacket(player, packet);
+    }
+
     /*
      * Yggdrasil's default implementation of this method silently fails instead of throwing
      * an Exception like it should.
@@ -553,6 +557,10 @@ public class NMS {
         return Lists.newArrayList(CitizensAPI.getLocationLookup().getNearbyVisiblePlayers(from, location, radius));
     }
 
+    public static Object getPacketEncodingKey(Player player) {
+        return BRIDGE.getPacketEncodingKey(player);
+    }
+
     public static EntityPacketTracker getPacketTracker(Entity entity) {
         if (entity == null)
             return null;
@@ -777,6 +785,10 @@ public class NMS {
         BRIDGE.removeFromServerPlayerList(player);
     }
 
+    public static void releaseEncodedPackets(List<Object> encoded) {
+        BRIDGE.releaseEncodedPackets(encoded);
+    }
+
     public static void removeFromWorld(org.bukkit.entity.Entity entity) {
         BRIDGE.removeFromWorld(entity);
     }
@@ -789,6 +801,10 @@ public class NMS {
         BRIDGE.replaceTrackerEntry(entity);
     }
 
+    public static boolean sendEncodedPackets(Player player, Object encodingKey, List<Object> encoded) {
+        return BRIDGE.sendEncodedPackets(player, encodingKey, encoded);
+    }
+
     public static void sendPositionUpdate(Entity from, Collection<Player> to, boolean position) {
         sendPositionUpdate(from, to, position, NMS.getYaw(from), from.getLocation().getPitch(), NMS.getHeadYaw(from));
     }
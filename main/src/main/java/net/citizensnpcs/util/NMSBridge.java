@@ -69,6 +69,16 @@ public interface NMSBridge {
 
     public EntityPacketTracker createPacketTracker(Entity entity, PacketAggregator agg);
 
+    /**
+     * Encodes a packet as it would be written to the player's connection, splitting bundles into their individual
+     * packets. The result can be written to any connection with an equal {@link #getPacketEncodingKey(Player)}.
+     *
+     * @return the encoded buffers, or null if the connection cannot share encoded packets
+     */
+    public default List<Object> encodePacket(Player player, Object packet) {
+        return null;
+    }
+
     public GameProfile fillProfileProperties(GameProfile profile, boolean requireSecure) throws Throwable;
 
     public BlockBreaker getBlockBreaker(Entity entity, Block targetBlock, BlockBreakerConfiguration config);
@@ -97,6 +107,14 @@ public interface NMSBridge {
 
     public float getHorizontalMovement(Entity entity);
 
+    /**
+     * @return a key that is equal for connections which encode packets identically, or null if encoded packets cannot
+     *         be shared with this connection
+     */
+    public default Object getPacketEncodingKey(Player player) {
+        return null;
+    }
+
     public EntityPacketTracker getPacketTracker(Entity entity);
 
     public List<Entity> getPassengers(Entity entity);
@@ -177,6 +195,9 @@ public interface NMSBridge {
 
     public void registerEntityClass(Class<?> clazz);
 
+    public default void releaseEncodedPackets(List<Object> encoded) {
+    }
+
     public void remove(Entity entity);
 
     public void removeFromServerPlayerList(Player player);
@@ -187,6 +208,19 @@ public interface NMSBridge {
 
     public void replaceTrackerEntry(Entity entity);
 
+    /**
+     * Writes packets returned by {@link #encodePacket(Player, Object)} to the player's connection without releasing
+     * them.
+     *
+     * @param encodingKey
+     *            the {@link #getPacketEncodingKey(Player)} the packets were encoded for
+     * @return false if nothing was written because the connection's encoding has changed or it has packets waiting to
+     *         be sent, in which case the packet should be sent normally
+     */
+    public default boolean sendEncodedPackets(Player player, Object encodingKey, List<Object> encoded) {
+        return false;
+    }
+
     public void sendPositionUpdate(Entity from, Collection<Player> to, boolean position, Float bodyYaw, Float pitch,
             Float headYaw);
 
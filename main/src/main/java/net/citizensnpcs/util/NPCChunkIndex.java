@@ -0,0 +1,92 @@
+package net.citizensnpcs.util;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+
+import net.citizensnpcs.Citizens;
+import net.citizensnpcs.api.CitizensAPI;
+import net.citizensnpcs.api.npc.NPC;
+
+/**
+ * An incrementally maintained index from chunk to the spawned NPCs inside it. Updated on spawn, despawn and whenever
+ * an NPC's update notices it has crossed into a new chunk.
+ */
+public class NPCChunkIndex {
+    private final Map<ChunkCoord, Set<NPC>> byChunk = new HashMap<>();
+    private final Map<NPC, ChunkCoord> chunks = new HashMap<>();
+
+    public void clear() {
+        byChunk.clear();
+        chunks.clear();
+    }
+
+    /**
+     * @return the chunk the NPC was last seen in, or null if it is not indexed
+     */
+    public ChunkCoord getChunk(NPC npc) {
+        return chunks.get(npc);
+    }
+
+    /**
+     * @return an unmodifiable view of the NPCs in the chunk
+     */
+    public Set<NPC> getNPCs(Chunk chunk) {
+        return getNPCs(new ChunkCoord(chunk));
+    }
+
+    public Set<NPC> getNPCs(ChunkCoord coord) {
+        Set<NPC> npcs = byChunk.get(coord);
+        return npcs == null ? Collections.emptySet() : Collections.unmodifiableSet(npcs);
+    }
+
+    public void remove(NPC npc) {
+        ChunkCoord old = chunks.remove(npc);
+        if (old != null) {
+            removeFromChunk(old, npc);
+        }
+    }
+
+    private void removeFromChunk(ChunkCoord coord, NPC npc) {
+        Set<NPC> npcs = byChunk.get(coord);
+        if (npcs == null)
+            return;
+        npcs.remove(npc);
+        if (npcs.isEmpty()) {
+            byChunk.remove(coord);
+        }
+    }
+
+    /**
+     * Moves the NPC to the chunk containing <code>loc</code> if it has changed.
+     *
+     * @return the NPC's current chunk
+     */
+    public ChunkCoord update(NPC npc, Location loc) {
+        ChunkCoord old = chunks.get(npc);
+        int x = loc.getBlockX() >> 4, z = loc.getBlockZ() >> 4;
+        if (old != null && old.x == x && old.z == z && old.worldUUID.equals(loc.getWorld().getUID()))
+            return old;
+        ChunkCoord coord = new ChunkCoord(loc.getWorld().getUID(), x, z);
+        chunks.put(npc, coord);
+        if (old != null) {
+            removeFromChunk(old, npc);
+        }
+        byChunk.computeIfAbsent(coord, c -> new LinkedHashSet<>()).add(npc);
+        return coord;
+    }
+
+    /**
+     * @return the shared index, or null if Citizens is not enabled
+     */
+    public static NPCChunkIndex getInstance() {
+        if (!CitizensAPI.hasImplementation() || !(CitizensAPI.getPlugin() instanceof Citizens))
+            return null;
+        return ((Citizens) CitizensAPI.getPlugin()).getNPCChunkIndex();
+    }
+}
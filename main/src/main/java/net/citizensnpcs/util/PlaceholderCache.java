@@ -0,0 +1,103 @@
+package net.citizensnpcs.util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import net.citizensnpcs.Settings.Setting;
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.api.util.Messaging;
+import net.citizensnpcs.api.util.Placeholders;
+
+/**
+ * Caches the result of replacing {@link Placeholders} in text that is not specific to a player, keyed by NPC and raw
+ * text. Results are reused for {@link Setting#HOLOGRAM_PLACEHOLDER_CACHE_DURATION} unless the text contains a
+ * placeholder listed in {@link Setting#HOLOGRAM_PLACEHOLDER_CACHE_DURATIONS}, in which case the shortest listed
+ * duration is used instead. Main thread only.
+ */
+public class PlaceholderCache {
+    private Map<String, Long> durations;
+    private final Map<UUID, Map<String, Entry>> entries = new HashMap<>();
+    private long lastPurge;
+    private List<String> parsedFrom;
+
+    public void clear() {
+        entries.clear();
+    }
+
+    private long getDuration(String raw) {
+        List<String> list = Setting.HOLOGRAM_PLACEHOLDER_CACHE_DURATIONS.asList();
+        if (list != parsedFrom) {
+            parsedFrom = list;
+            durations = new HashMap<>();
+            for (String line : list) {
+                String[] parts = line.trim().split("\\s+");
+                if (parts.length != 2) {
+                    Messaging.severe("Invalid placeholder cache duration", line);
+                    continue;
+                }
+                durations.put(parts[0], Util.parseTicks(parts[1]) * 50L);
+            }
+        }
+        long duration = Setting.HOLOGRAM_PLACEHOLDER_CACHE_DURATION.asTicks() * 50L;
+        boolean found = false;
+        for (Map.Entry<String, Long> entry : durations.entrySet()) {
+            if (raw.contains(entry.getKey())) {
+                duration = found ? Math.min(duration, entry.getValue()) : entry.getValue();
+                found = true;
+            }
+        }
+        return duration;
+    }
+
+    /**
+     * @return the raw text with placeholders replaced for the NPC, reusing a recent result if possible
+     */
+    public String replace(String raw, NPC npc) {
+        if (raw == null || npc == null)
+            return Placeholders.replace(raw, null, npc);
+        long now = System.currentTimeMillis();
+        if (now - lastPurge > PURGE_INTERVAL_MS) {
+            lastPurge = now;
+            for (Iterator<Map<String, Entry>> itr = entries.values().iterator(); itr.hasNext();) {
+                Map<String, Entry> npcEntries = itr.next();
+                npcEntries.values().removeIf(entry -> now >= entry.expiry);
+                if (npcEntries.isEmpty()) {
+                    itr.remove();
+                }
+            }
+        }
+        Map<String, Entry> npcEntries = entries.get(npc.getUniqueId());
+        Entry entry = npcEntries == null ? null : npcEntries.get(raw);
+        if (entry != null && now < entry.expiry)
+            return entry.replaced;
+        String replaced = Placeholders.replace(raw, null, npc);
+        long duration = getDuration(raw);
+        if (duration <= 0)
+            return replaced;
+        if (npcEntries == null) {
+            entries.put(npc.getUniqueId(), npcEntries = new HashMap<>());
+        }
+        npcEntries.put(raw, new Entry(replaced, now + duration));
+        return replaced;
+    }
+
+    private static class Entry {
+        private final long expiry;
+        private final String replaced;
+
+        public Entry(String replaced, long expiry) {
+            this.replaced = replaced;
+            this.expiry = expiry;
+        }
+    }
+
+    private static final PlaceholderCache INSTANCE = new PlaceholderCache();
+    private static final long PURGE_INTERVAL_MS = 1000;
+
+    public static PlaceholderCache getInstance() {
+        return INSTANCE;
+    }
+}
@@ -3,77 +3,118 @@ package net.citizensnpcs.util;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 import java.util.UUID;
 
+import org.bukkit.Bukkit;
+import org.bukkit.World;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
 import org.bukkit.scheduler.BukkitRunnable;
 
-import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
+import com.google.common.collect.Maps;
 
+import net.citizensnpcs.Settings.Setting;
 import net.citizensnpcs.api.npc.AbstractNPC;
 import net.citizensnpcs.api.npc.NPC;
 import net.citizensnpcs.api.util.Messaging;
 import net.citizensnpcs.npc.ai.NPCHolder;
 import net.citizensnpcs.trait.PacketNPC;
 
+/**
+ * Ticks player NPCs, grouped into one shard per world. Each player is indexed by UUID so registering and removing are
+ * constant time. Shards in worlds without any real players can be ticked less often, see
+ * {@link Setting#PLAYER_TICK_EMPTY_WORLD_INTERVAL}.
+ */
 public class PlayerUpdateTask extends BukkitRunnable {
-    private final List<PlayerTick> players = Lists.newArrayList();
-    private final Set<UUID> uuids = Sets.newHashSet();
+    private final Map<UUID, PlayerTick> players = Maps.newHashMap();
+    private final Map<UUID, Shard> shards = Maps.newHashMap();
+
+    private void add(Entity entity) {
+        NPC next = ((NPCHolder) entity).getNPC();
+        PlayerTick rm = players.remove(entity.getUniqueId());
+        if (rm != null) {
+            rm.shard.players.remove(entity.getUniqueId());
+            NPC old = ((NPCHolder) rm.entity).getNPC();
+            Messaging.severe(old == next ? "Player registered twice"
+                    : "Player registered twice with different NPC instances", rm.entity.getUniqueId());
+            rm.entity.remove();
+        }
+        PlayerTick pt = next.hasTrait(PacketNPC.class)
+                ? new PlayerTick(entity, () -> ((AbstractNPC) next).update())
+                : new PlayerTick(entity, NMS.playerTicker((Player) entity));
+        players.put(entity.getUniqueId(), pt);
+        getShard(entity.getWorld()).add(pt);
+    }
 
     @Override
     public void cancel() {
         super.cancel();
-        uuids.clear();
         players.clear();
+        shards.clear();
+    }
+
+    private Shard getShard(World world) {
+        return shards.computeIfAbsent(world.getUID(), uid -> new Shard(uid, world.getName()));
+    }
+
+    private void remove(Entity entity) {
+        PlayerTick pt = players.get(entity.getUniqueId());
+        // a late deregister must not remove a newer entity registered with the same UUID
+        if (pt == null || pt.entity != entity)
+            return;
+        players.remove(entity.getUniqueId());
+        pt.shard.players.remove(entity.getUniqueId());
     }
 
     @Override
     public void run() {
         if (PLAYERS_PENDING_REMOVE.size() > 0) {
-            players.removeIf(pt -> PLAYERS_PENDING_REMOVE.contains(pt.entity));
             for (Entity entity : PLAYERS_PENDING_REMOVE) {
-                uuids.remove(entity.getUniqueId());
+                remove(entity);
             }
             PLAYERS_PENDING_REMOVE.clear();
         }
         for (Entity entity : PLAYERS_PENDING_ADD) {
-            NPC next = ((NPCHolder) entity).getNPC();
-            if (uuids.contains(entity.getUniqueId())) {
-                // XXX: how often does this case get hit? can simplify implementation
-                PlayerTick rm = null;
-                for (Iterator<PlayerTick> itr = players.iterator(); itr.hasNext();) {
-                    PlayerTick pt = itr.next();
-                    if (pt.entity.getUniqueId().equals(entity.getUniqueId())) {
-                        rm = pt;
-                        itr.remove();
-                        uuids.remove(pt.entity.getUniqueId());
-                        break;
-                    }
-                }
-                NPC old = ((NPCHolder) rm.entity).getNPC();
-                Messaging.severe(old == next ? "Player registered twice"
-                        : "Player registered twice with different NPC instances", rm.entity.getUniqueId());
-                rm.entity.remove();
-            }
-            if (next.hasTrait(PacketNPC.class)) {
-                players.add(new PlayerTick(entity, () -> ((AbstractNPC) next).update()));
-            } else {
-                players.add(new PlayerTick(entity, NMS.playerTicker((Player) entity)));
-            }
-            uuids.add(entity.getUniqueId());
+            add(entity);
         }
         PLAYERS_PENDING_ADD.clear();
 
-        for (PlayerTick player : players) {
-            player.run();
+        TICK++;
+        int emptyInterval = Math.max(1, Setting.PLAYER_TICK_EMPTY_WORLD_INTERVAL.asTicks());
+        for (Iterator<Map.Entry<UUID, Shard>> itr = shards.entrySet().iterator(); itr.hasNext();) {
+            Map.Entry<UUID, Shard> entry = itr.next();
+            Shard shard = entry.getValue();
+            if (shard.players.isEmpty()) {
+                itr.remove();
+                continue;
+            }
+            if (emptyInterval > 1 && TICK % emptyInterval != 0) {
+                World world = Bukkit.getWorld(entry.getKey());
+                if (world == null || !hasRealPlayers(world))
+                    continue;
+            }
+            shard.run();
+        }
+        // collect first, moving into a new world's shard adds to the map being iterated
+        List<PlayerTick> moved = new ArrayList<>();
+        for (Shard shard : shards.values()) {
+            moved.addAll(shard.moved);
+            shard.moved.clear();
+        }
+        for (PlayerTick pt : moved) {
+            getShard(pt.entity.getWorld()).add(pt);
+        }
+        if (TICK % TIMINGS_REPORT_INTERVAL == 0 && Messaging.isDebugging()) {
+            for (Shard shard : shards.values()) {
+                shard.report();
+            }
         }
     }
 
     private static class PlayerTick implements Runnable {
         private final Entity entity;
+        private Shard shard;
         private final Runnable tick;
 
         public PlayerTick(Entity entity, Runnable tick) {
@@ -87,11 +128,73 @@ public class PlayerUpdateTask extends BukkitRunnable {
         }
     }
 
+    private static class Shard implements Runnable {
+        private final List<PlayerTick> moved = new ArrayList<>();
+        private final String name;
+        private final Map<UUID, PlayerTick> players = Maps.newLinkedHashMap();
+        private int runs;
+        private long totalNanos;
+        private final UUID world;
+        private long worstNanos;
+
+        public Shard(UUID world, String name) {
+            this.world = world;
+            this.name = name;
+        }
+
+        public void add(PlayerTick pt) {
+            pt.shard = this;
+            players.put(pt.entity.getUniqueId(), pt);
+        }
+
+        public void report() {
+            if (runs == 0)
+                return;
+            Messaging.debug("Player tick shard", name, "ticked", players.size(), "players, average",
+                    totalNanos / runs / 1000, "us, worst", worstNanos / 1000, "us over", runs, "runs");
+            runs = 0;
+            totalNanos = worstNanos = 0;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            for (Iterator<PlayerTick> itr = players.values().iterator(); itr.hasNext();) {
+                PlayerTick pt = itr.next();
+                pt.run();
+                // the tick may have moved the entity to another world
+                if (!pt.entity.getWorld().getUID().equals(world)) {
+                    itr.remove();
+                    moved.add(pt);
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            runs++;
+            totalNanos += elapsed;
+            worstNanos = Math.max(worstNanos, elapsed);
+        }
+    }
+
     public static void deregisterPlayer(org.bukkit.entity.Entity entity) {
         PLAYERS_PENDING_ADD.remove(entity);
         PLAYERS_PENDING_REMOVE.add(entity);
     }
 
+    /**
+     * @return the number of server ticks this task has run for, usable as a tick counter on the main thread
+     */
+    public static int getCurrentTick() {
+        return TICK;
+    }
+
+    private static boolean hasRealPlayers(World world) {
+        for (Player player : world.getPlayers()) {
+            if (!player.hasMetadata("NPC"))
+                return true;
+        }
+        return false;
+    }
+
     public static void registerPlayer(org.bukkit.entity.Entity entity) {
         PLAYERS_PENDING_REMOVE.remove(entity);
         PLAYERS_PENDING_ADD.add(entity);
@@ -99,4 +202,6 @@ public class PlayerUpdateTask extends BukkitRunnable {
 
     private static final List<Entity> PLAYERS_PENDING_ADD = new ArrayList<>();
     private static final List<Entity> PLAYERS_PENDING_REMOVE = new ArrayList<>();
+    private static int TICK;
+    private static final int TIMINGS_REPORT_INTERVAL = 20 * 60;
 }
@@ -0,0 +1,72 @@
+package net.citizensnpcs.util;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.citizensnpcs.api.util.Messaging;
+
+/**
+ * Caches the Minecraft chat components parsed from raw hologram text, so that identical text sent to many players is
+ * only parsed once. Callers should pass the text after placeholders have been replaced, so the key already reflects any
+ * per-player values. Safe to use from packet threads. Entries unused for {@link #EXPIRY_MS} are evicted.
+ */
+public class RenderedTextCache {
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile long lastPurge;
+
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * @return the parsed component for the raw text, as returned by
+     *         {@link Messaging#minecraftComponentFromRawMessage(String)}
+     */
+    public Object getComponent(String raw) {
+        Optional<?> component = getOptionalComponent(raw);
+        return component == null ? null : component.get();
+    }
+
+    /**
+     * @return the parsed component wrapped in an {@link Optional} for use as an entity custom name, or null if the text
+     *         was null
+     */
+    public Optional<?> getOptionalComponent(String raw) {
+        if (raw == null)
+            return null;
+        long now = System.currentTimeMillis();
+        if (now - lastPurge > PURGE_INTERVAL_MS || entries.size() > MAX_ENTRIES) {
+            lastPurge = now;
+            entries.values().removeIf(entry -> now - entry.lastAccess > EXPIRY_MS);
+            if (entries.size() > MAX_ENTRIES) {
+                entries.clear();
+            }
+        }
+        Entry entry = entries.get(raw);
+        if (entry == null) {
+            entry = new Entry(Optional.of(Messaging.minecraftComponentFromRawMessage(raw)));
+            entries.put(raw, entry);
+        }
+        entry.lastAccess = now;
+        return entry.component;
+    }
+
+    private static class Entry {
+        private final Optional<?> component;
+        private volatile long lastAccess;
+
+        public Entry(Optional<?> component) {
+            this.component = component;
+        }
+    }
+
+    private static final long EXPIRY_MS = 30000;
+    private static final RenderedTextCache INSTANCE = new RenderedTextCache();
+    private static final int MAX_ENTRIES = 4096;
+    private static final long PURGE_INTERVAL_MS = 1000;
+
+    public static RenderedTextCache getInstance() {
+        return INSTANCE;
+    }
+}
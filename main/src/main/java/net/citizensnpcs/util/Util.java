@@ -47,6 +47,7 @@ import net.citizensnpcs.api.CitizensAPI;
 import net.citizensnpcs.api.ai.speech.SpeechContext;
 import net.citizensnpcs.api.ai.speech.Talkable;
 import net.citizensnpcs.api.ai.speech.TalkableEntity;
+import net.citizensnpcs.api.astar.pathfinder.MinecraftBlockExaminer;
 import net.citizensnpcs.api.event.NPCCollisionEvent;
 import net.citizensnpcs.api.event.NPCPistonPushEvent;
 import net.citizensnpcs.api.event.NPCPushEvent;
@@ -334,6 +335,19 @@ public class Util {
         }
     }
 
+    /**
+     * @return whether an entity could stand in the block at the given position, without loading its chunk
+     */
+    public static boolean isStandable(World world, int x, int y, int z) {
+        if (!SpigotUtil.checkYSafe(y - 1, world) || !SpigotUtil.checkYSafe(y + 1, world)
+                || !world.isChunkLoaded(x >> 4, z >> 4))
+            return false;
+        Block block = world.getBlockAt(x, y, z);
+        return MinecraftBlockExaminer.canStandIn(block)
+                && MinecraftBlockExaminer.canStandIn(block.getRelative(BlockFace.UP))
+                && MinecraftBlockExaminer.canStandOn(block.getRelative(BlockFace.DOWN));
+    }
+
     public static String listValuesPretty(Object[] values) {
         return "<yellow>" + Joiner.on("<green>, <yellow>").join(values).replace('_', ' ').toLowerCase(Locale.ROOT);
     }
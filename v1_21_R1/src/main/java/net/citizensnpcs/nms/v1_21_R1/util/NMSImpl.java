@@ -9,6 +9,7 @@ import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Random;
 import java.util.Set;
 import java.util.TreeMap;
@@ -67,6 +68,9 @@ import com.mojang.authlib.yggdrasil.YggdrasilMinecraftSessionService;
 import com.mojang.authlib.yggdrasil.response.MinecraftProfilePropertiesResponse;
 import com.mojang.util.UndashedUuid;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+
 import net.citizensnpcs.Settings.Setting;
 import net.citizensnpcs.api.CitizensAPI;
 import net.citizensnpcs.api.ai.NavigatorParameters;
@@ -269,9 +273,13 @@ import net.minecraft.nbt.NumericTag;
 import net.minecraft.nbt.StringTag;
 import net.minecraft.nbt.Tag;
 import net.minecraft.network.Connection;
+import net.minecraft.network.PacketEncoder;
+import net.minecraft.network.ProtocolInfo;
 import net.minecraft.network.chat.Component;
 import net.minecraft.network.chat.MutableComponent;
 import net.minecraft.network.chat.contents.PlainTextContents.LiteralContents;
+import net.minecraft.network.codec.StreamCodec;
+import net.minecraft.network.protocol.BundlerInfo;
 import net.minecraft.network.protocol.Packet;
 import net.minecraft.network.protocol.game.ClientboundBundlePacket;
 import net.minecraft.network.protocol.game.ClientboundMoveEntityPacket;
@@ -495,7 +503,7 @@ public class NMSImpl implements NMSBridge {
                 handle.unsetRemoved();
                 tracker.addPairing(p);
                 linked.add(p.connection);
-                agg.add(p.getUUID(), packet -> p.connection.send((Packet<?>) packet));
+                agg.add(p.getUUID(), player, packet -> p.connection.send((Packet<?>) packet));
             }
 
             @Override
@@ -545,6 +553,34 @@ public class NMSImpl implements NMSBridge {
         };
     }
 
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Override
+    public List<Object> encodePacket(Player player, Object packet) {
+        ProtocolInfo<?> info = getEncoderProtocol(player);
+        if (info == null)
+            return null;
+        Channel channel = getChannel(player);
+        List<Packet<?>> unbundled = Lists.newArrayList();
+        BundlerInfo bundler = info.bundlerInfo();
+        if (bundler != null) {
+            bundler.unbundlePacket((Packet<?>) packet, unbundled::add);
+        } else {
+            unbundled.add((Packet<?>) packet);
+        }
+        List<Object> encoded = Lists.newArrayListWithCapacity(unbundled.size());
+        try {
+            for (Packet<?> single : unbundled) {
+                ByteBuf buf = channel.alloc().buffer();
+                encoded.add(buf);
+                ((StreamCodec) info.codec()).encode(buf, single);
+            }
+        } catch (Throwable t) {
+            releaseEncodedPackets(encoded);
+            return null;
+        }
+        return encoded;
+    }
+
     @Override
     public GameProfile fillProfileProperties(GameProfile profile, boolean requireSecure) throws Throwable {
         if (Bukkit.isPrimaryThread())
@@ -663,6 +699,12 @@ public class NMSImpl implements NMSBridge {
         return handle.zza;
     }
 
+    @Override
+    public Object getPacketEncodingKey(Player player) {
+        ProtocolInfo<?> info = getEncoderProtocol(player);
+        return info == null ? null : info.id();
+    }
+
     @Override
     public EntityPacketTracker getPacketTracker(org.bukkit.entity.Entity entity) {
         ServerLevel server = (ServerLevel) getHandle(entity).level();
@@ -1325,6 +1367,13 @@ public class NMSImpl implements NMSBridge {
         manager.register(clazz);
     }
 
+    @Override
+    public void releaseEncodedPackets(List<Object> encoded) {
+        for (Object buf : encoded) {
+            ((ByteBuf) buf).release();
+        }
+    }
+
     @Override
     public void remove(org.bukkit.entity.Entity entity) {
         getHandle(entity).remove(RemovalReason.KILLED);
@@ -1375,6 +1424,28 @@ public class NMSImpl implements NMSBridge {
         cm.entityMap.put(entity.getEntityId(), newTracker);
     }
 
+    @Override
+    public boolean sendEncodedPackets(Player player, Object encodingKey, List<Object> encoded) {
+        ServerPlayer handle = (ServerPlayer) getHandle(player);
+        Connection connection = handle.connection == null ? null : handle.connection.connection;
+        if (connection == null || connection.channel == null || !connection.isConnected()
+                || !encodingKey.equals(getPacketEncodingKey(player)) || CONNECTION_PENDING_ACTIONS == null)
+            return false;
+        try {
+            // packets queued by the connection (e.g. by Paper until it is ready) must be sent first, so leave the
+            // packet to Connection#send which queues behind them
+            if (!((Queue<?>) CONNECTION_PENDING_ACTIONS.invoke(connection)).isEmpty())
+                return false;
+        } catch (Throwable e) {
+            return false;
+        }
+        for (Object buf : encoded) {
+            connection.channel.write(((ByteBuf) buf).retainedDuplicate());
+        }
+        connection.channel.flush();
+        return true;
+    }
+
     @Override
     public void sendPositionUpdate(org.bukkit.entity.Entity from, Collection<Player> to, boolean position,
             Float bodyYaw, Float pitch, Float headYaw) {
@@ -2307,6 +2378,26 @@ public class NMSImpl implements NMSBridge {
                 : handle instanceof MobAI ? ((MobAI) handle).getNavigation() : null;
     }
 
+    private static Channel getChannel(Player player) {
+        ServerPlayer handle = (ServerPlayer) getHandle(player);
+        return handle.connection == null ? null : handle.connection.connection.channel;
+    }
+
+    // null unless the connection uses the vanilla encoder, since replaced encoders may translate each packet
+    private static ProtocolInfo<?> getEncoderProtocol(Player player) {
+        Channel channel = getChannel(player);
+        if (channel == null)
+            return null;
+        Object encoder = channel.pipeline().get("encoder");
+        if (!(encoder instanceof PacketEncoder) || PACKET_ENCODER_PROTOCOL == null)
+            return null;
+        try {
+            return (ProtocolInfo<?>) PACKET_ENCODER_PROTOCOL.invoke(encoder);
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
     private static Path getPathEntity(PathNavigation nav) {
         try {
             return nav instanceof EntityNavigation ? ((EntityNavigation) nav).getPathEntity()
@@ -2628,6 +2719,7 @@ public class NMSImpl implements NMSBridge {
             .newHashMap();
     public static final MethodHandle CONNECTION_DISCONNECT_LISTENER = NMS.getSetter(Connection.class, "p");
     public static final MethodHandle CONNECTION_PACKET_LISTENER = NMS.getSetter(Connection.class, "q");
+    private static final MethodHandle CONNECTION_PENDING_ACTIONS = NMS.getFirstGetter(Connection.class, Queue.class);
     private static final MethodHandle CRAFT_BOSSBAR_HANDLE_FIELD = NMS.getFirstSetter(CraftBossBar.class,
             ServerBossEvent.class);
     private static EntityDataAccessor<Boolean> DATA_NAME_VISIBLE = null;
@@ -2669,6 +2761,8 @@ public class NMSImpl implements NMSBridge {
     private static final MethodHandle NAVIGATION_PATHFINDER = NMS.getFirstFinalSetter(PathNavigation.class,
             PathFinder.class);
     private static final MethodHandle NAVIGATION_WORLD_FIELD = NMS.getFirstSetter(PathNavigation.class, Level.class);
+    private static final MethodHandle PACKET_ENCODER_PROTOCOL = NMS.getFirstGetter(PacketEncoder.class,
+            ProtocolInfo.class);
     private static final MethodHandle PLAYER_INFO_ENTRIES_LIST = NMS
             .getFirstFinalSetter(ClientboundPlayerInfoUpdatePacket.class, List.class);
     private static final MethodHandle PLAYERINFO_ENTRIES = PLAYER_INFO_ENTRIES_LIST;